@@ -11,6 +11,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -41,6 +42,11 @@ public class Catalog {
      */
     private Map<Integer, String> nameMap;
 
+    /**
+     * 表目录的修改次数，每次增删表时加一
+     */
+    private final AtomicLong version = new AtomicLong();
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -77,15 +83,19 @@ public class Catalog {
         }
 
         // 4、name不重复，id重复，需要特殊处理
+        DbFile replaced = null;
         if (!dbFileMap.containsKey(name) && nameMap.containsKey(file.getId())) {
             String oldName = nameMap.get(file.getId());
             // 删除旧表和主键信息
-            dbFileMap.remove(oldName);
+            replaced = dbFileMap.remove(oldName);
             pkeyMap.remove(oldName);
         }
-        dbFileMap.put(name, file);
+        DbFile previous = dbFileMap.put(name, file);
         pkeyMap.put(name, pkeyField);
         nameMap.put(file.getId(), name);
+        version.incrementAndGet();
+        closeIfDropped(replaced);
+        closeIfDropped(previous);
     }
 
     public void addTable(DbFile file, String name) {
@@ -191,8 +201,42 @@ public class Catalog {
      */
     public void clear() {
         // some code goes here
+        List<DbFile> files = new ArrayList<>(dbFileMap.values());
         dbFileMap.clear();
         pkeyMap.clear();
+        version.incrementAndGet();
+        for (DbFile file : files) {
+            closeIfDropped(file);
+        }
+    }
+
+    /**
+     * Close a file that was removed from the catalog, unless the catalog
+     * still holds it under another name.
+     */
+    private void closeIfDropped(DbFile file) {
+        if (Objects.isNull(file)) {
+            return;
+        }
+        for (DbFile held : dbFileMap.values()) {
+            if (held == file) {
+                return;
+            }
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return a number that changes whenever a table is added to or removed
+     * from the catalog, so that anything derived from the catalog can tell
+     * it is out of date
+     */
+    public long getVersion() {
+        return version.get();
     }
 
     /**
@@ -222,6 +266,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -1,5 +1,6 @@
 package simpledb.common;
 
+import simpledb.optimizer.QueryPlanCache;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
 
@@ -8,8 +9,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Database is a class that initializes several static variables used by the
- * database system (the catalog, the buffer pool, and the log files, in
- * particular.)
+ * database system (the catalog, the buffer pool, the log files, and the
+ * cache of query plans, in particular.)
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
@@ -23,10 +24,12 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final QueryPlanCache _queryPlanCache;
 
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _queryPlanCache = new QueryPlanCache();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -53,6 +56,11 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the query plan cache of the static Database instance */
+    public static QueryPlanCache getQueryPlanCache() {
+        return _instance.get()._queryPlanCache;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -72,7 +80,9 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        // 释放旧目录中各表文件的通道
+        old._catalog.clear();
     }
 
 }
@@ -3,9 +3,11 @@ package simpledb.common;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.VarcharField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +30,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            buf.putInt(offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +58,82 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN) {
+                s = s.substring(0, STRING_LEN);
+            }
+            // 与StringField.serialize相同：长度、每个字符的低字节、补零
+            buf.putInt(offset, s.length());
+            for (int i = 0; i < STRING_LEN; i++) {
+                buf.put(offset + 4 + i, i < s.length() ? (byte) s.charAt(i) : 0);
+            }
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * @return the largest number of bytes a field of this type can take
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return Math.min(((StringField) f).getValue().length(), STRING_LEN) + 4;
+        }
+
+        @Override
+        public boolean isFixedLength() {
+            return false;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs));
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            for (int i = 0; i < strLen; i++) {
+                bs[i] = buf.get(offset + 4 + i);
+            }
+            return new VarcharField(new String(bs));
+        }
+
+        @Override
+        public void serialize(Field f, ByteBuffer buf, int offset) {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN) {
+                s = s.substring(0, STRING_LEN);
+            }
+            // 与VarcharField.serialize相同：长度、每个字符的低字节，不补零
+            buf.putInt(offset, s.length());
+            for (int i = 0; i < s.length(); i++) {
+                buf.put(offset + 4 + i, (byte) s.charAt(i));
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +143,22 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes a particular field of this type takes when
+   *   serialized. Only differs from {@link #getLen()} for types that are not
+   *   fixed length.
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return true if every field of this type takes {@link #getLen()} bytes
+   */
+    public boolean isFixedLength() {
+        return true;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +168,18 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the buffer at the specified offset, in the format written by
+   *   {@link Field#serialize}. The buffer's position is not changed.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Write a field of this type into the buffer at the specified offset, in
+   * the same format as {@link Field#serialize}. The buffer's position is not
+   * changed.
+   */
+    public abstract void serialize(Field f, ByteBuffer buf, int offset);
+
 }
@@ -1,22 +1,42 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
-import simpledb.storage.Tuple;
+import simpledb.common.Type;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
 import java.util.NoSuchElementException;
+import java.util.Objects;
 
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates may be computed over groups keyed on any
+ * number of columns, all in one pass over the child.
+ * The child is consumed a batch at a time when the operator is opened.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
 
+    private OpIterator child;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+
+    /**
+     * 内存中最多保留的分组数
+     */
+    private final int maxGroups;
+
+    /**
+     * 聚合结果及其按批读取的视图
+     */
+    private transient OpIterator results;
+    private transient BatchIterator resultBatches;
+    private transient int[] outFields;
+    private transient TupleDesc outTd;
+
     /**
      * Constructor.
      * <p>
@@ -32,6 +52,50 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, afield, gfield, aop, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Like {@link #Aggregate(OpIterator, int, int, Aggregator.Op)}, but with
+     * a limit on the number of groups held in memory.
+     *
+     * @param maxGroups the largest number of groups kept in memory; more
+     *                  groups are partitioned to disk and merged afterward
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, new int[]{afield}, HashAggregator.groupFields(gfield), new Aggregator.Op[]{aop},
+                maxGroups);
+    }
+
+    /**
+     * Compute several aggregates over groups keyed on several columns. The
+     * output has the group columns in the given order, followed by one
+     * column per aggregate.
+     *
+     * @param afields the column of each aggregate, or
+     *                {@link HashAggregator#COUNT_ROWS} for COUNT(*)
+     * @param gfields the columns to group by; empty for no grouping
+     * @param aops    the operator of each aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param maxGroups the largest number of groups kept in memory; more
+     *                  groups are partitioned to disk and merged afterward
+     * @throws IllegalArgumentException if there are no aggregates, or
+     *                                  afields and aops differ in length
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, int maxGroups) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.maxGroups = maxGroups;
     }
 
     /**
@@ -41,7 +105,15 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return -1;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the group by field indexes in the <b>INPUT</b> tuples; empty
+     * if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -51,15 +123,32 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        return null;
+        if (gfields.length == 0) {
+            return null;
+        }
+        return groupFieldName(0);
     }
 
     /**
-     * @return the aggregate field
+     * @return the name of the i-th group by field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName(int i) {
+        return child.getTupleDesc().getFieldName(gfields[i]);
+    }
+
+    /**
+     * @return the aggregate field (of the first aggregate)
      */
     public int aggregateField() {
         // some code goes here
-        return -1;
+        return afields[0];
+    }
+
+    /**
+     * @return the field of each aggregate
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
     }
 
     /**
@@ -68,15 +157,31 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return null;
+        return aggregateFieldName(0);
+    }
+
+    /**
+     * @return the name of the i-th aggregate in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName(int i) {
+        String field = afields[i] == HashAggregator.COUNT_ROWS
+                ? "*" : child.getTupleDesc().getFieldName(afields[i]);
+        return nameOfAggregatorOp(aops[i]) + " (" + field + ")";
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the aggregate operator (of the first aggregate)
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return null;
+        return aops[0];
+    }
+
+    /**
+     * @return the operator of each aggregate
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -86,29 +191,99 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
+        results = resultIterator();
+        results.open();
+        resultBatches = BatchAdapter.of(results);
+        outTd = getTupleDesc();
+        outFields = new int[outTd.numFields()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = i;
+        }
+        super.open();
+    }
+
+    /**
+     * @return an iterator over the results, not yet opened. The default
+     * consumes the whole child with {@link #aggregate()} first.
+     */
+    protected OpIterator resultIterator() throws DbException, TransactionAbortedException {
+        return aggregate().iterator();
+    }
+
+    /**
+     * @return the largest number of groups the aggregate keeps in memory
+     */
+    protected int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * @return a new, empty aggregator for the child's aggregate and group
+     * fields
+     */
+    protected Aggregator newAggregator() {
+        return newAggregator(maxGroups);
+    }
+
+    /**
+     * @param maxGroups the largest number of groups the new aggregator keeps
+     *                  in memory
+     * @return a new, empty aggregator for the child's aggregate and group
+     * fields
+     */
+    protected Aggregator newAggregator(int maxGroups) {
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gtypes[i] = childTd.getFieldType(gfields[i]);
+        }
+        Type[] atypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++) {
+            atypes[i] = afields[i] == HashAggregator.COUNT_ROWS ? null : childTd.getFieldType(afields[i]);
+        }
+        return new HashAggregator(gfields, gtypes, afields, atypes, aops, maxGroups);
+    }
+
+    /**
+     * Consume the input and return the aggregator holding the results. The
+     * default opens the child and merges it a batch at a time.
+     */
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        child.open();
+        BatchIterator input = BatchAdapter.of(child);
+        TupleBatch batch;
+        while (Objects.nonNull(batch = input.nextBatch())) {
+            aggregator.mergeBatch(batch);
+        }
+        return aggregator;
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next batch of results. The group by fields come first, in
+     * the order given to the constructor, followed by the result of each
+     * aggregate. If there is no group by field, the result tuple holds just
+     * the aggregates. Should return null if there are no more tuples.
      */
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        TupleBatch batch = resultBatches.nextBatch();
+        if (Objects.isNull(batch)) {
+            return null;
+        }
+        // 换成带列名的TupleDesc
+        return batch.project(outFields, outTd);
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        super.rewind();
+        results.rewind();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, followed by
+     * one INT_TYPE column per aggregate.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -117,22 +292,41 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = groupFieldName(i);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = aggregateFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
+        if (Objects.nonNull(results)) {
+            results.close();
+        }
+        results = null;
+        resultBatches = null;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -79,6 +79,30 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * builds a Tuple per row; implementations should read the columns
+     * directly.
+     *
+     * @param batch the rows to merge
+     */
+    default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.numSelected(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(batch.selectedRow(i)));
+        }
+    }
+
+    /**
+     * Merge the groups of another aggregator into this one, as if every
+     * tuple merged into other had been merged into this aggregator. Used to
+     * combine the partial results of parallel workers. Other is used up:
+     * anything it spilled to disk is deleted, and it must not be used again.
+     *
+     * @param other an aggregator of the same class, built with the same
+     *              arguments
+     */
+    void merge(Aggregator other);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,25 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchIterator is an OpIterator that can also hand out its results a batch
+ * at a time, which lets a pipeline of batch operators pay the per-call
+ * overhead once per batch instead of once per row.
+ * 批量迭代器：一次返回一批元组
+ * <p>
+ * After open() or rewind() a consumer reads either with
+ * {@link #hasNext()}/{@link #next()} or with {@link #nextBatch()}, not both.
+ */
+public interface BatchIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of results. The batch has at least one selected
+     * row and stays valid until the next call on this iterator.
+     *
+     * @return the next batch, or null if the iteration is finished
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
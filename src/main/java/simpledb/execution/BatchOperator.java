@@ -0,0 +1,66 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Objects;
+
+/**
+ * Abstract class for operators that compute their results a batch at a time.
+ * Subclasses implement <code>fetchNextBatch</code>; the row-at-a-time
+ * <code>next</code> and <code>hasNext</code> of {@link Operator} are served by
+ * walking the selected rows of each batch, so row-only parents keep working.
+ * 按批计算的算子基类，逐行接口由批结果适配而来
+ */
+public abstract class BatchOperator extends Operator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 逐行读取时当前的批及其游标
+     */
+    private transient TupleBatch current;
+    private transient int cursor;
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!isOpen()) {
+            throw new IllegalStateException("Operator not yet open");
+        }
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the next batch of results, or null if the iteration is finished.
+     * The batch must have at least one selected row.
+     */
+    protected abstract TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException;
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (Objects.isNull(current) || cursor >= current.numSelected()) {
+            current = fetchNextBatch();
+            cursor = 0;
+            if (Objects.isNull(current)) {
+                return null;
+            }
+        }
+        return current.getTuple(current.selectedRow(cursor++));
+    }
+
+    /**
+     * Drops the partly read batch. Subclasses should call super.rewind() when
+     * overriding.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        current = null;
+    }
+
+    /**
+     * If overridden by a subclass, they should call super.close().
+     */
+    public void close() {
+        super.close();
+        current = null;
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.CloseableIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ExternalSorter sorts more tuples than fit in memory. Tuples are collected
+ * until maxTuples are held, then sorted and written out as a run in a
+ * {@link SpillFile}. Reading merges the runs and the tuples still in memory
+ * with a {@link LoserTree}; if there are more than {@link #MAX_FAN_IN} runs,
+ * groups of them are first merged into longer runs, so at most MAX_FAN_IN
+ * pages are being read at once. These merges go in rounds over adjacent
+ * groups of runs, and the last round merges only as many groups as needed,
+ * so each tuple is written again at most once per round, O(log runs / log
+ * MAX_FAN_IN) times in all. When everything fits in memory nothing is
+ * written. The sort is stable.
+ * <p>
+ * The first read merges the runs as they are. A later read, such as a
+ * rewind, first merges them into a single run, so each read after that
+ * opens one file and reads only the pages it gets to.
+ * 外部归并排序：内存满时排序写出一个有序段，最后多路归并
+ */
+class ExternalSorter {
+
+    /**
+     * 一次归并最多读取的有序段数
+     */
+    static final int MAX_FAN_IN = 64;
+
+    private final TupleDesc td;
+    private final Comparator<Tuple> comparator;
+    private final int maxTuples;
+
+    private final List<Tuple> buffer = new ArrayList<>();
+    private final List<SpillFile> runs = new ArrayList<>();
+
+    /**
+     * 内存满时写出的有序段数，不含多趟归并产生的段
+     */
+    private int numRuns = 0;
+
+    /**
+     * 归并前多趟合并中重写的元组数
+     */
+    private long numRewritten = 0;
+
+    /**
+     * 输入是否已结束并排好序
+     */
+    private boolean finished = false;
+
+    /**
+     * @param maxTuples the largest number of tuples held in memory
+     */
+    ExternalSorter(TupleDesc td, Comparator<Tuple> comparator, int maxTuples) {
+        this.td = td;
+        this.comparator = comparator;
+        this.maxTuples = Math.max(1, maxTuples);
+    }
+
+    void add(Tuple t) throws DbException {
+        if (finished) {
+            throw new IllegalStateException("sorter has already been read");
+        }
+        buffer.add(t);
+        if (buffer.size() >= maxTuples) {
+            buffer.sort(comparator);
+            runs.add(writeRun(buffer.iterator()));
+            buffer.clear();
+            numRuns++;
+        }
+    }
+
+    /**
+     * @return the number of sorted runs written to disk because memory was full
+     */
+    int numRuns() {
+        return numRuns;
+    }
+
+    private SpillFile writeRun(Iterator<Tuple> tuples) throws DbException {
+        try {
+            SpillFile run = new SpillFile(td);
+            while (tuples.hasNext()) {
+                run.add(tuples.next());
+            }
+            run.finish();
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+    }
+
+    /**
+     * End the input, and return the tuples in order. May be called again to
+     * read the tuples from the start. The iterator keeps the runs open until
+     * it reaches the end or is closed.
+     */
+    CloseableIterator<Tuple> iterator() throws DbException {
+        if (!finished) {
+            buffer.sort(comparator);
+            finished = true;
+            // 内存中的元组也作为一路参与归并，保证总路数不超过MAX_FAN_IN
+            while (runs.size() >= MAX_FAN_IN) {
+                mergeRound();
+            }
+        } else if (runs.size() > 1) {
+            // 再次读取时先合并成一个段，之后每次读取只打开一个文件
+            SpillFile run;
+            try (LoserTree<Tuple> merged = merge(runs, null)) {
+                run = writeRun(merged);
+            }
+            for (SpillFile old : runs) {
+                old.close();
+            }
+            runs.clear();
+            runs.add(run);
+        }
+        return merge(runs, buffer);
+    }
+
+    /**
+     * Merge adjacent groups of MAX_FAN_IN runs from the front, as many as
+     * are needed to leave fewer than MAX_FAN_IN runs, or all of them. Each
+     * merged run takes the place of its group, so the runs stay in input
+     * order and the sort stays stable.
+     */
+    private void mergeRound() throws DbException {
+        int n = runs.size();
+        // 每合并一组减少MAX_FAN_IN - 1个段
+        int needed = (n - MAX_FAN_IN + 1 + MAX_FAN_IN - 2) / (MAX_FAN_IN - 1);
+        List<SpillFile> next = new ArrayList<>();
+        int i = 0;
+        for (int g = 0; g < needed && i + 1 < n; g++) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MAX_FAN_IN, n));
+            try (LoserTree<Tuple> merged = merge(group, null)) {
+                next.add(writeRun(merged));
+            }
+            for (SpillFile run : group) {
+                numRewritten += run.numTuples();
+                run.close();
+            }
+            i += group.size();
+        }
+        next.addAll(runs.subList(i, n));
+        runs.clear();
+        runs.addAll(next);
+    }
+
+    /**
+     * @return the number of tuples written again by the merges that bring
+     * the runs down to MAX_FAN_IN
+     */
+    long numRewritten() {
+        return numRewritten;
+    }
+
+    /**
+     * Merge runs, followed by the tuples in memory if there are any. The
+     * in-memory tuples come last so ties keep their input order.
+     */
+    private LoserTree<Tuple> merge(List<SpillFile> group, List<Tuple> memory) {
+        List<Iterator<Tuple>> sources = new ArrayList<>();
+        for (SpillFile run : group) {
+            sources.add(run.iterator());
+        }
+        if (memory != null && !memory.isEmpty()) {
+            sources.add(memory.iterator());
+        }
+        return new LoserTree<>(sources, comparator);
+    }
+
+    /**
+     * Drop the tuples in memory and delete the runs.
+     */
+    void close() {
+        buffer.clear();
+        for (SpillFile run : runs) {
+            run.close();
+        }
+        runs.clear();
+    }
+}
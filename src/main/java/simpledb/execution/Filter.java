@@ -2,18 +2,34 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Tuple;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * Filter is an operator that implements a relational select.
+ * Filter works on batches: it narrows the selection vector of each input
+ * batch to the rows that pass the predicate, without copying any rows.
  */
-public class Filter extends Operator {
+public class Filter extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
 
+    private final Predicate p;
+    private OpIterator child;
+
+    /**
+     * 以批方式读取的子节点
+     */
+    private transient BatchIterator input;
+
+    /**
+     * 选择向量缓冲区
+     */
+    private transient int[] selection;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -25,55 +41,99 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
+        this.p = p;
+        this.child = child;
     }
 
     public Predicate getPredicate() {
         // some code goes here
-        return null;
+        return p;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return child.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        child.open();
+        input = BatchAdapter.of(child);
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
+        input = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        super.rewind();
+        child.rewind();
     }
 
     /**
-     * AbstractDbIterator.readNext implementation. Iterates over tuples from the
-     * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * BatchOperator.fetchNextBatch implementation. Reads batches from the
+     * child operator and keeps selected only the rows that pass the
+     * predicate (i.e. for which the Predicate.filter() returns true.)
+     * Batches with no passing rows are skipped.
      * 
-     * @return The next tuple that passes the filter, or null if there are no
-     *         more tuples
+     * @return The next batch with rows that pass the filter, or null if there
+     *         are no more tuples
      * @see Predicate#filter
      */
-    protected Tuple fetchNext() throws NoSuchElementException,
+    protected TupleBatch fetchNextBatch() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        // some code goes here
+        TupleBatch batch;
+        while (Objects.nonNull(batch = input.nextBatch())) {
+            if (Objects.isNull(selection) || selection.length < batch.capacity()) {
+                selection = new int[batch.capacity()];
+            }
+            Predicate.Op op = p.getOp();
+            Field operand = p.getOperand();
+            int n = 0;
+            // 写入位置不会超过读取位置，即使与输入的选择向量是同一个数组也安全
+            if (batch.isIntColumn(p.getField()) && operand instanceof IntField) {
+                // 整数列直接比较int，不构造IntField
+                int[] column = batch.intColumn(p.getField());
+                int value = ((IntField) operand).getValue();
+                for (int i = 0; i < batch.numSelected(); i++) {
+                    int row = batch.selectedRow(i);
+                    if (IntField.compare(op, column[row], value)) {
+                        selection[n++] = row;
+                    }
+                }
+            } else {
+                Field[] column = batch.column(p.getField());
+                for (int i = 0; i < batch.numSelected(); i++) {
+                    int row = batch.selectedRow(i);
+                    if (column[row].compare(op, operand)) {
+                        selection[n++] = row;
+                    }
+                }
+            }
+            if (n > 0) {
+                batch.select(selection, n);
+                return batch;
+            }
+        }
         return null;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -0,0 +1,925 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * HashAggregator computes any number of aggregates over groups keyed on any
+ * number of fields, in one pass over its input. Each distinct group key is
+ * given a group number, and every aggregate keeps the state of group g at
+ * index g of primitive arrays, so a group costs a few array slots rather
+ * than a map entry and a state object. Each aggregate keeps only the arrays
+ * its operator needs: an int per group for COUNT, MIN and MAX, a long for
+ * SUM, and a long and an int for AVG. A key made of one INT field is
+ * looked up in an {@link IntGroupTable} without boxing; other keys are
+ * lists of Fields.
+ * 分组哈希聚合：分组键映射到分组号，各聚合的状态存放在基本类型数组中
+ * <p>
+ * Batches are aggregated a column at a time: the group numbers of all
+ * selected rows are found first, then each aggregate runs one loop over its
+ * column.
+ * <p>
+ * At most maxGroups groups are kept in memory. When one more group arrives,
+ * the partial state of every group is written to one of
+ * {@link #PARTITIONS} {@link SpillFile}s chosen by the hash of the group
+ * key, and aggregation starts over with no groups. {@link #iterator()} then
+ * reads the partitions one at a time: a group's partial states all land in
+ * the same partition, so merging a partition gives final results for its
+ * groups. A partition that still holds too many groups is split again with
+ * a different hash, up to {@link #MAX_PARTITION_LEVEL} levels.
+ * <p>
+ * Once groups have been spilled, no more tuples may be merged after
+ * {@link #iterator()} is called, and closing the returned iterator deletes
+ * the spill files.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 默认在内存中保留的最多分组数
+     */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 20;
+
+    /**
+     * 溢出时划分成的分区数
+     */
+    public static final int PARTITIONS = 16;
+
+    /**
+     * 分区最多再划分的层数，超过后不再溢出
+     */
+    public static final int MAX_PARTITION_LEVEL = 3;
+
+    /**
+     * 用作COUNT(*)的聚合字段：只计行数
+     */
+    public static final int COUNT_ROWS = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] ops;
+    private final int maxGroups;
+    private final int level;
+
+    private final Accumulator[] accumulators;
+
+    /**
+     * 分组键只有一个INT字段时使用的哈希表及各分组的键，否则为null
+     */
+    private final IntGroupTable intGroups;
+    private int[] intGroupValues;
+
+    /**
+     * 其他分组键（包括不分组时的空键）到分组号，及各分组的键
+     */
+    private final Map<List<Field>, Integer> fieldGroups;
+    private final List<List<Field>> fieldGroupValues;
+
+    private int numGroups = 0;
+
+    /**
+     * 状态数组的当前长度
+     */
+    private int capacity = 0;
+
+    /**
+     * 按批聚合时各行的行号和分组号
+     */
+    private transient int[] batchRows;
+    private transient int[] batchGroups;
+
+    /**
+     * 溢出的分区，没有溢出时为null
+     */
+    private transient SpillFile[] partitions = null;
+    private int spills = 0;
+
+    /**
+     * @param gbfields     the group-by fields; empty for no grouping
+     * @param gbfieldtypes the types of the group-by fields
+     * @param afields      the field of each aggregate, or
+     *                     {@link #COUNT_ROWS} for COUNT(*)
+     * @param afieldtypes  the types of the aggregate fields; null where
+     *                     afields is COUNT_ROWS
+     * @param ops          the operator of each aggregate
+     * @param maxGroups    the largest number of groups kept in memory; more
+     *                     groups are partitioned to disk
+     * @throws IllegalArgumentException if an operator is not supported on
+     *                                  its field
+     */
+    public HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes,
+                          Op[] ops, int maxGroups) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, ops, maxGroups, 0);
+    }
+
+    private HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes,
+                           Op[] ops, int maxGroups, int level) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("maxGroups must be positive");
+        }
+        if (afields.length != ops.length || afields.length != afieldtypes.length
+                || gbfields.length != gbfieldtypes.length) {
+            throw new IllegalArgumentException("field and type arrays differ in length");
+        }
+        this.gbfields = gbfields;
+        this.gbfieldtypes = gbfieldtypes;
+        this.afields = afields;
+        this.afieldtypes = afieldtypes;
+        this.ops = ops;
+        this.maxGroups = maxGroups;
+        this.level = level;
+
+        accumulators = new Accumulator[ops.length];
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Op.SUM_COUNT || ops[i] == Op.SC_AVG) {
+                throw new IllegalArgumentException("unsupported aggregate " + ops[i]);
+            }
+            // 每种聚合只保留它需要的状态
+            if (ops[i] == Op.COUNT) {
+                accumulators[i] = new CountAccumulator();
+            } else if (afieldtypes[i] != Type.INT_TYPE || afields[i] == COUNT_ROWS) {
+                throw new IllegalArgumentException(ops[i] + " is only supported over INT_TYPE fields");
+            } else if (ops[i] == Op.MIN || ops[i] == Op.MAX) {
+                accumulators[i] = new ExtremeAccumulator(afields[i], ops[i] == Op.MAX);
+            } else {
+                accumulators[i] = new SumAccumulator(afields[i], ops[i] == Op.AVG);
+            }
+        }
+
+        if (gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE) {
+            intGroups = new IntGroupTable();
+            intGroupValues = new int[INITIAL_CAPACITY];
+            fieldGroups = null;
+            fieldGroupValues = null;
+        } else {
+            intGroups = null;
+            fieldGroups = new HashMap<>();
+            fieldGroupValues = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return the group-by fields for a single group-by field, which may be
+     * {@link Aggregator#NO_GROUPING}
+     */
+    static int[] groupFields(int gbfield) {
+        return gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield};
+    }
+
+    /**
+     * @return the group-by field types for a single group-by field
+     */
+    static Type[] groupTypes(int gbfield, Type gbfieldtype) {
+        return gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype};
+    }
+
+    /**
+     * @return the number of times groups were written to disk because there
+     * were more than maxGroups of them
+     */
+    public int getSpills() {
+        return spills;
+    }
+
+    /**
+     * @return the TupleDesc of the results: the group-by fields, then one
+     * INT_TYPE field per aggregate
+     */
+    public TupleDesc getResultTupleDesc() {
+        Type[] types = new Type[gbfields.length + ops.length];
+        System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        return new TupleDesc(types);
+    }
+
+    // ----------------------------------------------------------------
+    // 分组
+
+    private boolean full() {
+        return numGroups >= maxGroups && gbfields.length > 0 && level < MAX_PARTITION_LEVEL;
+    }
+
+    private int newGroup() {
+        int g = numGroups++;
+        if (g == capacity) {
+            capacity = Math.max(16, capacity * 2);
+            for (Accumulator a : accumulators) {
+                a.grow(capacity);
+            }
+        }
+        for (Accumulator a : accumulators) {
+            a.init(g);
+        }
+        return g;
+    }
+
+    private int addIntGroup(int value) {
+        int g = newGroup();
+        intGroups.put(value, g);
+        if (g == intGroupValues.length) {
+            intGroupValues = Arrays.copyOf(intGroupValues, g * 2);
+        }
+        intGroupValues[g] = value;
+        return g;
+    }
+
+    private int addFieldGroup(List<Field> key) {
+        int g = newGroup();
+        fieldGroups.put(key, g);
+        fieldGroupValues.add(key);
+        return g;
+    }
+
+    /**
+     * @return the group number of key, adding the group (and spilling if
+     * memory is full) if it is new
+     */
+    private int groupOf(List<Field> key) {
+        if (Objects.nonNull(intGroups)) {
+            int value = ((IntField) key.get(0)).getValue();
+            int g = intGroups.get(value);
+            if (g < 0) {
+                if (full()) {
+                    spill();
+                }
+                g = addIntGroup(value);
+            }
+            return g;
+        }
+        Integer g = fieldGroups.get(key);
+        if (Objects.isNull(g)) {
+            if (full()) {
+                spill();
+            }
+            g = addFieldGroup(key);
+        }
+        return g;
+    }
+
+    /**
+     * @return the key of group g
+     */
+    private List<Field> groupValue(int g) {
+        if (Objects.nonNull(intGroups)) {
+            return Collections.singletonList(new IntField(intGroupValues[g]));
+        }
+        return fieldGroupValues.get(g);
+    }
+
+    private List<Field> keyOf(Tuple t, int[] fields) {
+        if (fields.length == 0) {
+            return Collections.emptyList();
+        }
+        Field[] key = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            key[i] = t.getField(fields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    private List<Field> keyOf(TupleBatch batch, int row) {
+        if (gbfields.length == 0) {
+            return Collections.emptyList();
+        }
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            key[i] = batch.getField(gbfields[i], row);
+        }
+        return Arrays.asList(key);
+    }
+
+    private boolean sameGroup(TupleBatch batch, int row1, int row2) {
+        for (int field : gbfields) {
+            if (batch.isIntColumn(field)) {
+                if (batch.getInt(field, row1) != batch.getInt(field, row2)) {
+                    return false;
+                }
+            } else if (!Objects.equals(batch.getField(field, row1), batch.getField(field, row2))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ----------------------------------------------------------------
+    // 合并输入
+
+    /**
+     * Merge a new tuple into the aggregates of its group
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groupOf(keyOf(tup, gbfields));
+        for (Accumulator a : accumulators) {
+            a.add(g, tup);
+        }
+    }
+
+    /**
+     * Merge the selected rows of a batch: find every row's group, then let
+     * each aggregate read its column in one loop
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        if (Objects.isNull(batchRows) || batchRows.length < batch.capacity()) {
+            batchRows = new int[batch.capacity()];
+            batchGroups = new int[batch.capacity()];
+        }
+        int pending = 0;
+        int lastRow = -1;
+        int lastGroup = -1;
+        for (int i = 0; i < batch.numSelected(); i++) {
+            int row = batch.selectedRow(i);
+            int g;
+            // 相邻行常属于同一分组，省去一次哈希查找
+            if (lastGroup >= 0 && sameGroup(batch, lastRow, row)) {
+                g = lastGroup;
+            } else {
+                List<Field> key = null;
+                if (Objects.nonNull(intGroups)) {
+                    g = intGroups.get(batch.getInt(gbfields[0], row));
+                } else {
+                    key = keyOf(batch, row);
+                    Integer found = fieldGroups.get(key);
+                    g = Objects.isNull(found) ? -1 : found;
+                }
+                if (g < 0) {
+                    if (full()) {
+                        // 溢出会清空分组号，先把已经确定分组的行累加进去
+                        accumulate(batch, pending);
+                        pending = 0;
+                        spill();
+                    }
+                    g = Objects.nonNull(intGroups)
+                            ? addIntGroup(batch.getInt(gbfields[0], row))
+                            : addFieldGroup(key);
+                }
+            }
+            batchRows[pending] = row;
+            batchGroups[pending] = g;
+            pending++;
+            lastRow = row;
+            lastGroup = g;
+        }
+        accumulate(batch, pending);
+    }
+
+    private void accumulate(TupleBatch batch, int n) {
+        if (n == 0) {
+            return;
+        }
+        for (Accumulator a : accumulators) {
+            a.addBatch(batch, batchRows, batchGroups, n);
+        }
+    }
+
+    // ----------------------------------------------------------------
+    // 溢出与合并
+
+    /**
+     * Pick a partition from the hash of a group key. Each level mixes the
+     * hash differently, so groups that shared a partition at one level are
+     * spread over several at the next.
+     */
+    private static int partitionOf(List<Field> key, int level) {
+        int h = (key.hashCode() + level) * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    private int numStateFields() {
+        int n = 0;
+        for (Accumulator a : accumulators) {
+            n += a.numStateFields();
+        }
+        return n;
+    }
+
+    /**
+     * Write the partial state of every group to its partition and drop the
+     * groups from memory. A spilled tuple holds the group key followed by
+     * the state of each aggregate.
+     */
+    private void spill() {
+        try {
+            if (Objects.isNull(partitions)) {
+                Type[] types = new Type[gbfields.length + numStateFields()];
+                Arrays.fill(types, Type.INT_TYPE);
+                System.arraycopy(gbfieldtypes, 0, types, 0, gbfields.length);
+                TupleDesc spillTd = new TupleDesc(types);
+                partitions = new SpillFile[PARTITIONS];
+                for (int i = 0; i < PARTITIONS; i++) {
+                    partitions[i] = new SpillFile(spillTd);
+                }
+            }
+            TupleDesc spillTd = partitions[0].getTupleDesc();
+            for (int g = 0; g < numGroups; g++) {
+                List<Field> key = groupValue(g);
+                Tuple t = new Tuple(spillTd);
+                for (int i = 0; i < key.size(); i++) {
+                    t.setField(i, key.get(i));
+                }
+                int offset = key.size();
+                for (Accumulator a : accumulators) {
+                    a.writeState(g, t, offset);
+                    offset += a.numStateFields();
+                }
+                partitions[partitionOf(key, level)].add(t);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill groups: " + e.getMessage(), e);
+        }
+        clearGroups();
+        spills++;
+    }
+
+    /**
+     * Forget the groups in memory. The state arrays keep their size.
+     */
+    private void clearGroups() {
+        numGroups = 0;
+        if (Objects.nonNull(intGroups)) {
+            intGroups.clear();
+        } else {
+            fieldGroups.clear();
+            fieldGroupValues.clear();
+        }
+    }
+
+    private static int[] prefix(int n) {
+        int[] fields = new int[n];
+        for (int i = 0; i < n; i++) {
+            fields[i] = i;
+        }
+        return fields;
+    }
+
+    /**
+     * Merge a tuple written by {@link #spill()} into its group
+     */
+    private void mergeSpilled(Tuple t) {
+        int g = groupOf(keyOf(t, prefix(gbfields.length)));
+        int offset = gbfields.length;
+        for (Accumulator a : accumulators) {
+            a.mergeState(g, t, offset);
+            offset += a.numStateFields();
+        }
+    }
+
+    /**
+     * Merge group og of other into the group with the same key
+     */
+    private void mergeGroup(HashAggregator other, int og) {
+        int g = groupOf(other.groupValue(og));
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i].merge(g, other.accumulators[i], og);
+        }
+    }
+
+    @Override
+    public void merge(Aggregator other) {
+        HashAggregator o = (HashAggregator) other;
+        if (Objects.nonNull(o.partitions)) {
+            for (SpillFile partition : o.partitions) {
+                for (Tuple t : partition) {
+                    mergeSpilled(t);
+                }
+                // 另一个聚合器已用完，删除它的溢出文件
+                partition.close();
+            }
+            o.partitions = null;
+        }
+        for (int g = 0; g < o.numGroups; g++) {
+            mergeGroup(o, g);
+        }
+        o.clearGroups();
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by fields followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor
+     */
+    public OpIterator iterator() {
+        TupleDesc td = getResultTupleDesc();
+        if (Objects.nonNull(partitions)) {
+            return new PartitionIterator(td);
+        }
+        return new TupleIterator(td, inMemoryResults(td));
+    }
+
+    private List<Tuple> inMemoryResults(TupleDesc td) {
+        List<Tuple> results = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            Tuple t = new Tuple(td);
+            List<Field> key = groupValue(g);
+            for (int i = 0; i < key.size(); i++) {
+                t.setField(i, key.get(i));
+            }
+            for (int i = 0; i < accumulators.length; i++) {
+                t.setField(key.size() + i, accumulators[i].result(g));
+            }
+            results.add(t);
+        }
+        return results;
+    }
+
+    /**
+     * Return the results of every group merged so far and start over with
+     * no groups, so the aggregator can be reused for the next run of a
+     * sorted input. Spill files, if any, are read and deleted.
+     *
+     * @return the results, in the format of {@link #iterator()}
+     */
+    List<Tuple> takeResults() throws DbException, TransactionAbortedException {
+        TupleDesc td = getResultTupleDesc();
+        List<Tuple> results;
+        if (Objects.isNull(partitions)) {
+            results = inMemoryResults(td);
+        } else {
+            results = new ArrayList<>();
+            OpIterator it = iterator();
+            it.open();
+            while (it.hasNext()) {
+                results.add(it.next());
+            }
+            it.close();
+            partitions = null;
+        }
+        clearGroups();
+        return results;
+    }
+
+    /**
+     * Merge the spilled states of one partition, plus the groups still in
+     * memory that hash to it, into a new aggregator.
+     */
+    private HashAggregator aggregatePartition(int p) {
+        HashAggregator sub = new HashAggregator(gbfields, gbfieldtypes, afields, afieldtypes, ops,
+                maxGroups, level + 1);
+        for (Tuple t : partitions[p]) {
+            sub.mergeSpilled(t);
+        }
+        for (int g = 0; g < numGroups; g++) {
+            if (partitionOf(groupValue(g), level) == p) {
+                sub.mergeGroup(this, g);
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * The results of a spilled aggregation, one partition at a time
+     */
+    private class PartitionIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TupleDesc td;
+
+        /**
+         * 下一个要合并的分区，及当前分区的结果
+         */
+        private int next = 0;
+        private OpIterator current = null;
+        private boolean open = false;
+
+        PartitionIterator(TupleDesc td) {
+            this.td = td;
+        }
+
+        public void open() {
+            next = 0;
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                throw new IllegalStateException("iterator is not open");
+            }
+            while (Objects.isNull(current) || !current.hasNext()) {
+                closeCurrent();
+                if (next == PARTITIONS) {
+                    return false;
+                }
+                current = aggregatePartition(next++).iterator();
+                current.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        public void rewind() {
+            closeCurrent();
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        private void closeCurrent() {
+            if (Objects.nonNull(current)) {
+                current.close();
+                current = null;
+            }
+        }
+
+        /**
+         * Close the iterator and delete the spill files.
+         */
+        public void close() {
+            closeCurrent();
+            open = false;
+            for (SpillFile partition : partitions) {
+                partition.close();
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------
+    // 各聚合的状态
+
+    /**
+     * The state of one aggregate for every group, in arrays indexed by group
+     * number
+     */
+    private abstract static class Accumulator implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Make room for groups up to capacity - 1
+         */
+        abstract void grow(int capacity);
+
+        /**
+         * Reset the state of a new group
+         */
+        abstract void init(int g);
+
+        abstract void add(int g, Tuple t);
+
+        /**
+         * Add rows[i] of the batch to group groups[i], for i < n
+         */
+        abstract void addBatch(TupleBatch batch, int[] rows, int[] groups, int n);
+
+        /**
+         * @return the number of INT_TYPE fields the state of a group is
+         * written as
+         */
+        abstract int numStateFields();
+
+        abstract void writeState(int g, Tuple t, int offset);
+
+        abstract void mergeState(int g, Tuple t, int offset);
+
+        /**
+         * Merge group og of other, an accumulator of the same kind
+         */
+        abstract void merge(int g, Accumulator other, int og);
+
+        abstract Field result(int g);
+    }
+
+    /**
+     * MIN or MAX over an INT_TYPE field: one int per group
+     */
+    private static class ExtremeAccumulator extends Accumulator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int field;
+        private final boolean max;
+
+        private int[] values = new int[0];
+
+        ExtremeAccumulator(int field, boolean max) {
+            this.field = field;
+            this.max = max;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void init(int g) {
+            values[g] = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        }
+
+        private void add(int g, int value) {
+            values[g] = max ? Math.max(values[g], value) : Math.min(values[g], value);
+        }
+
+        void add(int g, Tuple t) {
+            add(g, t.getInt(field));
+        }
+
+        void addBatch(TupleBatch batch, int[] rows, int[] groups, int n) {
+            int[] column = batch.intColumn(field);
+            // 分开两个循环，循环体内不再判断是MIN还是MAX
+            if (max) {
+                for (int i = 0; i < n; i++) {
+                    values[groups[i]] = Math.max(values[groups[i]], column[rows[i]]);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    values[groups[i]] = Math.min(values[groups[i]], column[rows[i]]);
+                }
+            }
+        }
+
+        int numStateFields() {
+            return 1;
+        }
+
+        void writeState(int g, Tuple t, int offset) {
+            t.setField(offset, new IntField(values[g]));
+        }
+
+        void mergeState(int g, Tuple t, int offset) {
+            add(g, t.getInt(offset));
+        }
+
+        void merge(int g, Accumulator other, int og) {
+            add(g, ((ExtremeAccumulator) other).values[og]);
+        }
+
+        Field result(int g) {
+            return new IntField(values[g]);
+        }
+    }
+
+    /**
+     * SUM or AVG over an INT_TYPE field: a long sum per group, and for AVG
+     * an int count
+     */
+    private static class SumAccumulator extends Accumulator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int field;
+        private final boolean avg;
+
+        private long[] sums = new long[0];
+
+        /**
+         * 只有AVG需要计数，SUM时为null
+         */
+        private int[] counts = null;
+
+        SumAccumulator(int field, boolean avg) {
+            this.field = field;
+            this.avg = avg;
+            if (avg) {
+                counts = new int[0];
+            }
+        }
+
+        void grow(int capacity) {
+            sums = Arrays.copyOf(sums, capacity);
+            if (avg) {
+                counts = Arrays.copyOf(counts, capacity);
+            }
+        }
+
+        void init(int g) {
+            sums[g] = 0;
+            if (avg) {
+                counts[g] = 0;
+            }
+        }
+
+        void add(int g, Tuple t) {
+            sums[g] += t.getInt(field);
+            if (avg) {
+                counts[g]++;
+            }
+        }
+
+        void addBatch(TupleBatch batch, int[] rows, int[] groups, int n) {
+            int[] column = batch.intColumn(field);
+            for (int i = 0; i < n; i++) {
+                sums[groups[i]] += column[rows[i]];
+            }
+            if (avg) {
+                for (int i = 0; i < n; i++) {
+                    counts[groups[i]]++;
+                }
+            }
+        }
+
+        /**
+         * the high and low halves of the sum, then the count for AVG
+         */
+        int numStateFields() {
+            return avg ? 3 : 2;
+        }
+
+        void writeState(int g, Tuple t, int offset) {
+            t.setField(offset, new IntField((int) (sums[g] >>> 32)));
+            t.setField(offset + 1, new IntField((int) sums[g]));
+            if (avg) {
+                t.setField(offset + 2, new IntField(counts[g]));
+            }
+        }
+
+        void mergeState(int g, Tuple t, int offset) {
+            sums[g] += ((long) t.getInt(offset) << 32) | (t.getInt(offset + 1) & 0xFFFFFFFFL);
+            if (avg) {
+                counts[g] += t.getInt(offset + 2);
+            }
+        }
+
+        void merge(int g, Accumulator other, int og) {
+            SumAccumulator o = (SumAccumulator) other;
+            sums[g] += o.sums[og];
+            if (avg) {
+                counts[g] += o.counts[og];
+            }
+        }
+
+        Field result(int g) {
+            return new IntField(avg ? (int) (sums[g] / counts[g]) : (int) sums[g]);
+        }
+    }
+
+    /**
+     * COUNT over a field of any type, or COUNT(*)
+     */
+    private static class CountAccumulator extends Accumulator {
+
+        private static final long serialVersionUID = 1L;
+
+        private int[] counts = new int[0];
+
+        void grow(int capacity) {
+            counts = Arrays.copyOf(counts, capacity);
+        }
+
+        void init(int g) {
+            counts[g] = 0;
+        }
+
+        void add(int g, Tuple t) {
+            counts[g]++;
+        }
+
+        void addBatch(TupleBatch batch, int[] rows, int[] groups, int n) {
+            for (int i = 0; i < n; i++) {
+                counts[groups[i]]++;
+            }
+        }
+
+        int numStateFields() {
+            return 1;
+        }
+
+        void writeState(int g, Tuple t, int offset) {
+            t.setField(offset, new IntField(counts[g]));
+        }
+
+        void mergeState(int g, Tuple t, int offset) {
+            counts[g] += t.getInt(offset);
+        }
+
+        void merge(int g, Accumulator other, int og) {
+            counts[g] += ((CountAccumulator) other).counts[og];
+        }
+
+        Field result(int g) {
+            return new IntField(counts[g]);
+        }
+    }
+}
@@ -2,22 +2,25 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -31,10 +34,7 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
-        this.pred = p;
-        this.child1 = child1;
-        this.child2 = child2;
-        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this(p, child1, child2, MAP_SIZE);
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -58,106 +58,431 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /**
+     * 溢出时每个输入划分成的分区数
+     */
+    public final static int PARTITIONS = 16;
+
+    /**
+     * 分区仍然放不下时最多再划分的层数，超过后分块处理
+     */
+    public final static int MAX_PARTITION_LEVEL = 3;
+
+    /**
+     * 哈希表最多容纳的元组数
+     */
+    private final int mapSize;
+
+    /**
+     * 以批方式读取的左右子节点
+     */
+    transient private BatchIterator input1, input2;
+
+    /**
+     * 一对分区：两个输入中连接字段哈希到同一分区的元组
+     */
+    private static class Partition {
+        final SpillFile build;
+        final SpillFile probe;
+        final int level;
+
+        Partition(SpillFile build, SpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void close() {
+            build.close();
+            probe.close();
+        }
+    }
+
+    /**
+     * 待处理的分区；为空且current为null时表示整个连接在内存中完成
+     */
+    transient private Deque<Partition> partitions = new ArrayDeque<>();
+
+    /**
+     * 正在处理的分区，及其build侧还没有装入哈希表的元组
+     */
+    transient private Partition current = null;
+    transient private Iterator<Tuple> buildIt = null;
+
+    /**
+     * 当前探测的输入：child2，或当前分区的probe侧
+     */
+    transient private BatchIterator probeInput = null;
+
+    /**
+     * 当前探测的批、其中的位置和当前行在哈希表中的匹配
+     */
+    transient private TupleBatch probe = null;
+    transient private int probePos = 0;
+    transient Iterator<Tuple> listIt = null;
+
+    /**
+     * 两个连接字段都是INT_TYPE时代替map使用的哈希表，以及当前匹配的行号
+     */
+    transient private IntJoinTable intTable = null;
+    transient private int match = -1;
+
+    transient private TupleBatch out = null;
+    transient private boolean done = false;
+
+    /**
+     * 本次执行中写出的分区数
+     */
+    transient private int spilledPartitions = 0;
+
+    /**
+     * Like {@link #HashEquiJoin(JoinPredicate, OpIterator, OpIterator)}, but
+     * with a limit on the number of child1 rows held in memory.
+     *
+     * @param mapSize the largest number of rows of child1 kept in the hash
+     *                table; a bigger child1 is partitioned to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int mapSize) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.mapSize = mapSize;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the number of partition pairs written to disk since the join
+     * was last opened or rewound, 0 if child1 fit in memory
+     */
+    public int getSpilledPartitions() {
+        return spilledPartitions;
+    }
+
+    private void addToMap(Tuple t) {
+        if (Objects.nonNull(intTable)) {
+            intTable.add(t.getInt(pred.getField1()), t);
+        } else {
+            map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+        }
+    }
+
+    private void clearMap() {
+        if (Objects.nonNull(intTable)) {
+            intTable.clear();
+        }
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+    }
+
+    private boolean mapIsEmpty() {
+        return Objects.nonNull(intTable) ? intTable.isEmpty() : map.isEmpty();
+    }
+
+    /**
+     * @return the rows in the hash table
+     */
+    private List<Tuple> mapRows() {
+        List<Tuple> rows = new ArrayList<>();
+        if (Objects.nonNull(intTable)) {
+            for (int i = 0; i < intTable.size(); i++) {
+                rows.add(intTable.row(i));
+            }
+        } else {
+            map.values().forEach(rows::addAll);
+        }
+        return rows;
+    }
+
+    /**
+     * Load up to mapSize rows into the hash table.
+     *
+     * @return the number of rows loaded
+     */
+    private int loadMap(Iterator<Tuple> it) {
+        int cnt = 0;
+        clearMap();
+        while (cnt < mapSize && it.hasNext()) {
+            addToMap(it.next());
+            cnt++;
+        }
+        return cnt;
+    }
+
+    /**
+     * Read child1 into the hash table. If it has more than mapSize rows,
+     * partition both children to disk by the hash of the join field instead,
+     * so each child is read once whatever its size.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        clearMap();
+        int cnt = 0;
+        TupleBatch batch = null;
+        while (cnt < mapSize && Objects.nonNull(batch = input1.nextBatch())) {
+            for (int i = 0; i < batch.numSelected(); i++) {
+                addToMap(batch.getTuple(batch.selectedRow(i)));
+                cnt++;
+            }
+        }
+        if (Objects.nonNull(batch)) {
+            batch = input1.nextBatch();
+        }
+        if (Objects.isNull(batch)) {
+            // child1放得下，直接用child2探测
+            probeInput = input2;
+            done = mapIsEmpty();
+            return;
+        }
+        try {
+            SpillFile[] builds = newSpillFiles(child1.getTupleDesc());
+            for (Tuple t : mapRows()) {
+                builds[partitionOf(t.getField(pred.getField1()), 0)].add(t);
+            }
+            clearMap();
+            do {
+                spill(batch, pred.getField1(), builds);
+            } while (Objects.nonNull(batch = input1.nextBatch()));
+            SpillFile[] probes = newSpillFiles(child2.getTupleDesc());
+            while (Objects.nonNull(batch = input2.nextBatch())) {
+                spill(batch, pred.getField2(), probes);
+            }
+            addPartitions(builds, probes, 0);
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+        done = !nextPartition();
+    }
+
+    private static SpillFile[] newSpillFiles(TupleDesc td) throws IOException {
+        SpillFile[] files = new SpillFile[PARTITIONS];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new SpillFile(td);
+        }
+        return files;
+    }
+
+    private static void spill(TupleBatch batch, int field, SpillFile[] files) throws IOException {
+        for (int i = 0; i < batch.numSelected(); i++) {
+            int row = batch.selectedRow(i);
+            files[partitionOf(batch.getField(field, row), 0)].add(batch.getTuple(row));
+        }
+    }
+
+    /**
+     * Pick a partition from the hash of a join value. Each level mixes the
+     * hash differently, so rows that shared a partition at one level are
+     * spread over several at the next.
+     */
+    private static int partitionOf(Field f, int level) {
+        int h = (f.hashCode() + level) * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & Integer.MAX_VALUE) % PARTITIONS;
+    }
+
+    private void addPartitions(SpillFile[] builds, SpillFile[] probes, int level) {
+        for (int i = 0; i < PARTITIONS; i++) {
+            if (builds[i].numTuples() == 0 || probes[i].numTuples() == 0) {
+                // 一侧为空的分区没有结果
+                builds[i].close();
+                probes[i].close();
+            } else {
+                partitions.push(new Partition(builds[i], probes[i], level));
+                spilledPartitions++;
+            }
+        }
+    }
+
+    /**
+     * Start on the next partition: split it again if its build side is too
+     * big, otherwise load its build side and probe with its probe side. At
+     * the last level a build side that is still too big is loaded in chunks,
+     * reading the probe side once per chunk.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closeCurrent();
+        try {
+            while (!partitions.isEmpty()) {
+                Partition p = partitions.pop();
+                if (p.build.numTuples() > mapSize && p.level < MAX_PARTITION_LEVEL) {
+                    SpillFile[] builds = newSpillFiles(child1.getTupleDesc());
+                    SpillFile[] probes = newSpillFiles(child2.getTupleDesc());
+                    for (Tuple t : p.build) {
+                        builds[partitionOf(t.getField(pred.getField1()), p.level + 1)].add(t);
+                    }
+                    for (Tuple t : p.probe) {
+                        probes[partitionOf(t.getField(pred.getField2()), p.level + 1)].add(t);
+                    }
+                    p.close();
+                    addPartitions(builds, probes, p.level + 1);
+                    continue;
+                }
+                current = p;
+                buildIt = p.build.iterator();
+                loadMap(buildIt);
+                probeInput = new SpillScan(p.probe);
+                probeInput.open();
                 return true;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill join input: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Called when the probe input is used up: load the next chunk of the
+     * current partition, or move on to the next partition.
+     *
+     * @return false if the join is finished
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+        if (Objects.nonNull(current) && buildIt.hasNext()) {
+            loadMap(buildIt);
+            probeInput.rewind();
+            return true;
+        }
+        clearMap();
+        return nextPartition();
+    }
+
+    private void closeCurrent() {
+        if (Objects.nonNull(current)) {
+            probeInput.close();
+            current.close();
+            current = null;
+            buildIt = null;
         }
-        return cnt > 0;
+    }
 
+    private void clearPartitions() {
+        closeCurrent();
+        while (!partitions.isEmpty()) {
+            partitions.pop().close();
+        }
+        spilledPartitions = 0;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        input1 = BatchAdapter.of(child1);
+        input2 = BatchAdapter.of(child2);
+        out = new TupleBatch(comboTD);
+        partitions = new ArrayDeque<>();
+        boolean intKeys = child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE;
+        intTable = intKeys ? new IntJoinTable() : null;
+        resetProbe();
+        build();
         super.open();
     }
 
     public void close() {
         super.close();
+        clearPartitions();
         child2.close();
         child1.close();
         this.t1=null;
-        this.t2=null;
         this.listIt=null;
+        this.probe=null;
+        this.probeInput=null;
+        this.out=null;
         this.map.clear();
+        this.intTable=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
+        clearPartitions();
         child1.rewind();
         child2.rewind();
+        resetProbe();
+        build();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    private void resetProbe() {
+        probe = null;
+        probePos = 0;
+        listIt = null;
+        match = -1;
+    }
 
     /**
-     * Returns the next tuple generated by the join, or null if there are no
-     * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
-     * <p>
-     * Note that the tuples returned from this particular implementation of Join
-     * are simply the concatenation of joining tuples from the left and right
-     * relation. Therefore, there will be two copies of the join attribute in
-     * the results. (Removing such duplicate columns can be done with an
-     * additional projection operator if needed.)
+     * Returns the next batch of tuples generated by the join, or null if
+     * there are no more tuples. Each output row is the concatenation of a
+     * row of child1 with a matching row of child2, so there will be two
+     * copies of the join attribute in the results. (Removing such duplicate
+     * columns can be done with an additional projection operator if needed.)
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
-     * @return The next matching tuple.
+     * <p>
+     * If child1 has at most mapSize rows it is loaded into a hash table and
+     * child2 is read once, a batch at a time, probing the table. Otherwise
+     * both children are partitioned to {@link SpillFile}s by the hash of
+     * the join field (a Grace hash join) and each pair of partitions is
+     * joined in memory in turn. When both join fields are INT_TYPE the hash
+     * table is an {@link IntJoinTable} keyed on unboxed ints.
+     *
+     * @return The next batch of matching tuples.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
-    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        out.clear();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        while (!done) {
+            if (match >= 0 || Objects.nonNull(listIt) && listIt.hasNext()) {
+                if (out.isFull()) {
+                    return out;
+                }
+                // set fields in combined row
+                if (match >= 0) {
+                    t1 = intTable.row(match);
+                    match = intTable.next(match);
+                } else {
+                    t1 = listIt.next();
+                }
+                int probeRow = probe.selectedRow(probePos - 1);
+                int row = out.addRow();
+                for (int i = 0; i < td1n; i++) {
+                    if (out.isIntColumn(i)) {
+                        out.setInt(i, row, t1.getInt(i));
+                    } else {
+                        out.setField(i, row, t1.getField(i));
+                    }
+                }
+                for (int i = 0; i < td2n; i++) {
+                    if (out.isIntColumn(td1n + i)) {
+                        out.setInt(td1n + i, row, probe.getInt(i, probeRow));
+                    } else {
+                        out.setField(td1n + i, row, probe.getField(i, probeRow));
+                    }
+                }
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
-        }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            }
+            listIt = null;
+            if (Objects.isNull(probe) || probePos >= probe.numSelected()) {
+                probe = probeInput.nextBatch();
+                probePos = 0;
+                if (Objects.isNull(probe)) {
+                    // the probe input is done: move on to the next chunk or partition
+                    done = !advance();
+                    continue;
+                }
+            }
+            int probeRow = probe.selectedRow(probePos++);
+            if (Objects.nonNull(intTable)) {
+                match = intTable.first(probe.getInt(pred.getField2(), probeRow));
+                continue;
+            }
+            List<Tuple> l = map.get(probe.getField(pred.getField2(), probeRow));
+            if (Objects.nonNull(l)) {
+                listIt = l.iterator();
+            }
         }
-
-        return null;
+        return out.size() > 0 ? out : null;
     }
 
     @Override
@@ -0,0 +1,200 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins an outer input to a table stored in a
+ * {@link BTreeFile} that is keyed on the join field. Instead of scanning the
+ * table, each outer tuple seeks the index with
+ * {@link BTreeFile#indexIterator}, so only the leaf pages holding matches
+ * are read. This wins when the outer input is small and the table is big.
+ * 索引嵌套循环连接：每个外层元组在B+树上查找匹配
+ * <p>
+ * The predicate is outer.field1 op table.key, where op is EQUALS or an
+ * ordering comparison. Output rows are the outer row followed by the table
+ * row, whose fields are named tableAlias.fieldName as with {@link SeqScan}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private final int tableId;
+
+    /**
+     * 代表内层表的扫描，只用于显示计划和估计基数，不会被打开
+     */
+    private final SeqScan inner;
+    private final TupleDesc comboTD;
+
+    transient private Tuple t1 = null;
+    transient private DbFileIterator matches = null;
+
+    /**
+     * 本次执行的索引查找次数
+     */
+    transient private int lookups = 0;
+
+    /**
+     * @param tid        the transaction the index lookups run as a part of
+     * @param p          the join predicate; field2 must be the key of the table
+     * @param child1     the outer input
+     * @param tableId    the table to look tuples up in
+     * @param tableAlias the alias of the table
+     * @throws IllegalArgumentException if the table is not a BTreeFile keyed
+     *                                  on field2, or the operator cannot be
+     *                                  answered by the index
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, OpIterator child1, int tableId,
+                               String tableAlias) {
+        if (!canUseIndex(tableId, p.getField2(), p.getOperator())) {
+            throw new IllegalArgumentException("table " + tableId + " has no B+ tree on field "
+                    + p.getField2() + " usable with " + p.getOperator());
+        }
+        this.tid = tid;
+        this.pred = p;
+        this.child1 = child1;
+        this.tableId = tableId;
+        this.inner = new SeqScan(tid, tableId, tableAlias);
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    /**
+     * @return true if the table is a BTreeFile keyed on the field and the
+     * index can find the tuples matching op
+     */
+    public static boolean canUseIndex(int tableId, int field, Predicate.Op op) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field
+                && op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * The index predicate is key op' value, the join predicate value op key,
+     * so the comparison is mirrored.
+     */
+    private static Predicate.Op mirror(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return the number of index lookups since the join was opened or
+     * rewound
+     */
+    public int getLookups() {
+        return lookups;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        lookups = 0;
+        super.open();
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    public void close() {
+        super.close();
+        closeMatches();
+        child1.close();
+        t1 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeMatches();
+        child1.rewind();
+        t1 = null;
+        lookups = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                return merge(t1, matches.next());
+            }
+            closeMatches();
+            if (!child1.hasNext()) {
+                return null;
+            }
+            t1 = child1.next();
+            matches = file.indexIterator(tid,
+                    new IndexPredicate(mirror(pred.getOperator()), t1.getField(pred.getField1())));
+            matches.open();
+            lookups++;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * @return the outer input and a SeqScan standing for the table
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.inner};
+    }
+
+    /**
+     * Replace the outer input. The table cannot be replaced.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntGroupTable maps INT_TYPE group values to group numbers for
+ * {@link HashAggregator}. Keys and group numbers are kept unboxed in an open
+ * addressing table (linear probing), so looking up a group allocates
+ * nothing.
+ * 整数分组值到分组号的开放寻址哈希表
+ */
+class IntGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 每个桶的键及其分组号；分组号为-1表示空桶
+     */
+    private int[] keys;
+    private int[] groups;
+
+    private int size = 0;
+
+    IntGroupTable() {
+        keys = new int[INITIAL_CAPACITY];
+        groups = new int[INITIAL_CAPACITY];
+        Arrays.fill(groups, -1);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the bucket holding key, or the empty bucket where it would go
+     */
+    private int bucket(int key) {
+        int mask = keys.length - 1;
+        int b = hash(key) & mask;
+        while (groups[b] >= 0 && keys[b] != key) {
+            b = (b + 1) & mask;
+        }
+        return b;
+    }
+
+    /**
+     * @return the group number of key, or -1 if it has none
+     */
+    int get(int key) {
+        return groups[bucket(key)];
+    }
+
+    /**
+     * Give key a group number. The key must not be in the table yet.
+     */
+    void put(int key, int group) {
+        int b = bucket(key);
+        keys[b] = key;
+        groups[b] = group;
+        size++;
+        // 装载因子不超过1/2
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldGroups = groups;
+        keys = new int[oldKeys.length * 2];
+        groups = new int[oldKeys.length * 2];
+        Arrays.fill(groups, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] >= 0) {
+                int b = bucket(oldKeys[i]);
+                keys[b] = oldKeys[i];
+                groups[b] = oldGroups[i];
+            }
+        }
+    }
+
+    /**
+     * Remove every key. The arrays keep their size.
+     */
+    void clear() {
+        if (size > 0) {
+            Arrays.fill(groups, -1);
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.Arrays;
+
+/**
+ * IntJoinTable is the build side of a hash join on an INT_TYPE field. Keys
+ * are kept unboxed in an open addressing table (linear probing), and the
+ * rows with the same key are chained through an int array, so building and
+ * probing allocate no per-key objects and never call hashCode or equals.
+ * 整数连接键的开放寻址哈希表，同键的行用int数组链接
+ */
+class IntJoinTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 每个桶的键，及该键最近加入的行号；head为-1表示空桶
+     */
+    private int[] keys;
+    private int[] heads;
+
+    /**
+     * 行，以及同键的下一行的行号，-1表示链尾
+     */
+    private Tuple[] rows;
+    private int[] next;
+
+    private int numKeys = 0;
+    private int size = 0;
+
+    IntJoinTable() {
+        keys = new int[INITIAL_CAPACITY];
+        heads = new int[INITIAL_CAPACITY];
+        Arrays.fill(heads, -1);
+        rows = new Tuple[INITIAL_CAPACITY];
+        next = new int[INITIAL_CAPACITY];
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the bucket holding key, or the empty bucket where it would go
+     */
+    private int bucket(int key) {
+        int mask = keys.length - 1;
+        int b = hash(key) & mask;
+        while (heads[b] >= 0 && keys[b] != key) {
+            b = (b + 1) & mask;
+        }
+        return b;
+    }
+
+    void add(int key, Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        int b = bucket(key);
+        if (heads[b] < 0) {
+            keys[b] = key;
+            numKeys++;
+        }
+        rows[size] = t;
+        next[size] = heads[b];
+        heads[b] = size++;
+        // 装载因子不超过1/2
+        if (numKeys * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new int[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        Arrays.fill(heads, -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] >= 0) {
+                int b = bucket(oldKeys[i]);
+                keys[b] = oldKeys[i];
+                heads[b] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * @return the index of a row with the key, or -1 if there is none
+     */
+    int first(int key) {
+        return heads[bucket(key)];
+    }
+
+    /**
+     * @return the index of the next row with the same key as row i, or -1
+     */
+    int next(int i) {
+        return next[i];
+    }
+
+    Tuple row(int i) {
+        return rows[i];
+    }
+
+    /**
+     * @return the number of rows
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove every row. The arrays keep their size for the next build.
+     */
+    void clear() {
+        if (numKeys > 0) {
+            Arrays.fill(heads, -1);
+        }
+        Arrays.fill(rows, 0, size, null);
+        numKeys = 0;
+        size = 0;
+    }
+}
@@ -1,12 +1,13 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
-import simpledb.storage.Tuple;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * Group state is kept in primitive arrays and spilled to disk when there are
+ * too many groups; see {@link HashAggregator}.
  */
-public class IntegerAggregator implements Aggregator {
+public class IntegerAggregator extends HashAggregator {
 
     private static final long serialVersionUID = 1L;
 
@@ -26,32 +27,15 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MAX_GROUPS);
     }
 
     /**
-     * Merge a new tuple into the aggregate, grouping as indicated in the
-     * constructor
-     * 
-     * @param tup
-     *            the Tuple containing an aggregate field and a group-by field
+     * @param maxGroups the largest number of groups kept in memory; more
+     *                  groups are partitioned to disk
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
+        super(groupFields(gbfield), groupTypes(gbfield, gbfieldtype), new int[]{afield},
+                new Type[]{Type.INT_TYPE}, new Op[]{what}, maxGroups);
     }
-
-    /**
-     * Create a OpIterator over group aggregate results.
-     * 
-     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
-     */
-    public OpIterator iterator() {
-        // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
-    }
-
 }
@@ -0,0 +1,127 @@
+package simpledb.execution;
+
+import simpledb.storage.CloseableIterator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * LoserTree merges k sorted iterators. Each internal node of a complete
+ * binary tree over the sources remembers the loser of the match played
+ * there and the winner moves up, so after taking the smallest element only
+ * the path from its source to the root is replayed: log2(k) comparisons per
+ * element, against about 2*log2(k) for a binary heap. Ties go to the source
+ * with the smaller index, so merging runs of a stable sort in order keeps
+ * the sort stable. Closing the tree closes the sources that hold resources.
+ * 败者树：k路归并，每输出一个元素只需沿一条路径重新比较
+ *
+ * @param <T> the element type
+ */
+class LoserTree<T> implements CloseableIterator<T> {
+
+    private final List<? extends Iterator<T>> sources;
+    private final Comparator<? super T> comparator;
+    private final int k;
+
+    /**
+     * 每个来源的当前元素，来源耗尽时为null
+     */
+    private final Object[] heads;
+
+    /**
+     * tree[1..k-1]为各内部结点的败者，tree[0]为胜者；
+     * 结点t的孩子为2t和2t+1，来源i对应叶子k+i
+     */
+    private final int[] tree;
+
+    LoserTree(List<? extends Iterator<T>> sources, Comparator<? super T> comparator) {
+        this.sources = sources;
+        this.comparator = comparator;
+        this.k = sources.size();
+        this.heads = new Object[k];
+        this.tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            Iterator<T> it = sources.get(i);
+            heads[i] = it.hasNext() ? it.next() : null;
+        }
+        if (k == 0) {
+            return;
+        }
+        // 自底向上建树
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int t = k - 1; t >= 1; t--) {
+            int a = winners[2 * t];
+            int b = winners[2 * t + 1];
+            if (beats(a, b)) {
+                winners[t] = a;
+                tree[t] = b;
+            } else {
+                winners[t] = b;
+                tree[t] = a;
+            }
+        }
+        tree[0] = k == 1 ? 0 : winners[1];
+    }
+
+    /**
+     * @return true if the head of source a comes before the head of source b
+     */
+    @SuppressWarnings("unchecked")
+    private boolean beats(int a, int b) {
+        T x = (T) heads[a];
+        T y = (T) heads[b];
+        if (Objects.isNull(x)) {
+            return false;
+        }
+        if (Objects.isNull(y)) {
+            return true;
+        }
+        int cmp = comparator.compare(x, y);
+        return cmp < 0 || cmp == 0 && a < b;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return k > 0 && Objects.nonNull(heads[tree[0]]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int winner = tree[0];
+        T result = (T) heads[winner];
+        Iterator<T> it = sources.get(winner);
+        heads[winner] = it.hasNext() ? it.next() : null;
+        // 沿来源到根的路径重赛
+        int s = winner;
+        for (int t = (winner + k) / 2; t > 0; t /= 2) {
+            if (beats(tree[t], s)) {
+                int loser = s;
+                s = tree[t];
+                tree[t] = loser;
+            }
+        }
+        tree[0] = s;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (Iterator<T> it : sources) {
+            if (it instanceof CloseableIterator) {
+                ((CloseableIterator<T>) it).close();
+            }
+        }
+        Arrays.fill(heads, null);
+    }
+}
@@ -67,6 +67,13 @@ public abstract class Operator implements OpIterator {
         this.open = true;
     }
 
+    /**
+     * @return true if the operator has been opened and not closed since
+     */
+    protected boolean isOpen() {
+        return this.open;
+    }
+
     /**
      * @return return the children DbIterators of this operator. If there is
      *         only one child, return an array of only one element. For join
@@ -2,25 +2,35 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
+import simpledb.storage.CloseableIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY. At most
+ * maxTuples tuples are kept in memory; a bigger input is sorted with an
+ * {@link ExternalSorter}, which writes sorted runs to temporary files and
+ * merges them.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * 默认在内存中排序的最大元组数
+     */
+    public static final int DEFAULT_MAX_TUPLES = 100000;
+
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
+    private CloseableIterator<Tuple> it;
     private final boolean asc;
+    private final int maxTuples;
+    private transient ExternalSorter sorter;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,11 +43,21 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MAX_TUPLES);
+    }
+
+    /**
+     * @param maxTuples
+     *            the largest number of tuples held in memory; more are
+     *            spilled to disk in sorted runs.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int maxTuples) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.maxTuples = maxTuples;
     }
     
     public boolean isASC()
@@ -59,24 +79,53 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open
+     */
+    public int getNumRuns() {
+        return sorter == null ? 0 : sorter.numRuns();
+    }
+
+    /**
+     * @return the number of tuples written again by the last open to bring
+     * the runs down to what can be merged at once
+     */
+    public long getNumRewrittenTuples() {
+        return sorter == null ? 0 : sorter.numRewritten();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        closeSorter();
+        sorter = new ExternalSorter(td, new TupleComparator(orderByField, asc), maxTuples);
         child.open();
-        // load all the tuples in a collection, and sort it
+        // load all the tuples, spilling sorted runs when memory is full
         while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sorter.add(child.next());
+        it = sorter.iterator();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        closeSorter();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        // 关闭上一次归并打开的有序段再重新读
+        it.close();
+        it = sorter.iterator();
+    }
+
+    private void closeSorter() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (sorter != null) {
+            sorter.close();
+            sorter = null;
+        }
     }
 
     /**
@@ -104,25 +153,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,209 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelAggregate computes an aggregate over a heap file with several
+ * threads. The file's pages are split into morsels of {@link #MORSEL_PAGES}
+ * pages; each worker of a fork-join pool repeatedly claims the next morsel,
+ * runs a copy of the pipeline (for example a Filter and a Project) over a
+ * {@link SeqScan} of just that morsel, and merges the result into its own
+ * {@link Aggregator}. When the morsels run out the partial aggregators are
+ * merged with {@link Aggregator#merge}. Claiming morsels one at a time keeps
+ * the workers busy even when some morsels take longer than others.
+ * 按页块（morsel）并行扫描、过滤并聚合，最后合并各线程的部分结果
+ * <p>
+ * All workers read as part of the same transaction, so the pipeline must
+ * only read. The output and its TupleDesc are those of an
+ * {@link Aggregate} over the whole pipeline, though groups may come out in a
+ * different order.
+ * <p>
+ * The workers' aggregators share the group budget of the whole aggregate,
+ * each keeping at most its share in memory before spilling, so running in
+ * parallel does not multiply the memory used.
+ */
+public class ParallelAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 每个morsel的页数
+     */
+    public static final int MORSEL_PAGES = 16;
+
+    /**
+     * Builds the operators that run on top of the scan of one morsel. It is
+     * called once per morsel, so every worker has its own operators.
+     */
+    public interface Pipeline extends Serializable {
+        OpIterator build(OpIterator scan);
+    }
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final Pipeline pipeline;
+    private final int parallelism;
+    private final transient ForkJoinPool pool;
+
+    /**
+     * Aggregate a table on the common fork-join pool, using all of its
+     * threads.
+     *
+     * @param pipeline the operators between the scan and the aggregate; the
+     *                 aggregate and group fields refer to its output
+     */
+    public ParallelAggregate(TransactionId tid, int tableId, String tableAlias, Pipeline pipeline,
+                             int afield, int gfield, Aggregator.Op aop) {
+        this(tid, tableId, tableAlias, pipeline, afield, gfield, aop,
+                ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Compute several aggregates over groups keyed on several columns, on the
+     * common fork-join pool.
+     *
+     * @see Aggregate#Aggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public ParallelAggregate(TransactionId tid, int tableId, String tableAlias, Pipeline pipeline,
+                             int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(tid, tableId, tableAlias, pipeline, afields, gfields, aops,
+                ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * @param pool        the pool the workers run on
+     * @param parallelism the largest number of workers
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public ParallelAggregate(TransactionId tid, int tableId, String tableAlias, Pipeline pipeline,
+                             int afield, int gfield, Aggregator.Op aop,
+                             ForkJoinPool pool, int parallelism) {
+        this(tid, tableId, tableAlias, pipeline, new int[]{afield}, HashAggregator.groupFields(gfield),
+                new Aggregator.Op[]{aop}, pool, parallelism);
+    }
+
+    /**
+     * @param pool        the pool the workers run on
+     * @param parallelism the largest number of workers
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public ParallelAggregate(TransactionId tid, int tableId, String tableAlias, Pipeline pipeline,
+                             int[] afields, int[] gfields, Aggregator.Op[] aops,
+                             ForkJoinPool pool, int parallelism) {
+        this(tid, tableId, tableAlias, pipeline, afields, gfields, aops, pool, parallelism,
+                HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param pool        the pool the workers run on
+     * @param parallelism the largest number of workers
+     * @param maxGroups   the largest number of groups kept in memory by all
+     *                    workers together
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public ParallelAggregate(TransactionId tid, int tableId, String tableAlias, Pipeline pipeline,
+                             int[] afields, int[] gfields, Aggregator.Op[] aops,
+                             ForkJoinPool pool, int parallelism, int maxGroups) {
+        // 整个表上的流水线只用来确定输出格式，不会被执行
+        super(pipeline.build(new SeqScan(tid, tableId, tableAlias)), afields, gfields, aops, maxGroups);
+        if (!(Database.getCatalog().getDatabaseFile(tableId) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be aggregated in parallel");
+        }
+        this.tid = tid;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.pipeline = pipeline;
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    @Override
+    protected Aggregator aggregate() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        int numMorsels = (file.numPages() + MORSEL_PAGES - 1) / MORSEL_PAGES;
+        AtomicInteger nextMorsel = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        int numWorkers = Math.min(parallelism, numMorsels);
+        // 各线程平分分组数上限
+        int workerGroups = Math.max(1, getMaxGroups() / Math.max(1, numWorkers));
+
+        List<ForkJoinTask<Aggregator>> workers = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++) {
+            workers.add(pool.submit(() -> {
+                Aggregator partial = newAggregator(workerGroups);
+                int morsel;
+                while (!failed.get() && (morsel = nextMorsel.getAndIncrement()) < numMorsels) {
+                    try {
+                        aggregateMorsel(morsel, partial);
+                    } catch (DbException | TransactionAbortedException | RuntimeException e) {
+                        // 让其他线程尽快停下
+                        failed.set(true);
+                        throw e;
+                    }
+                }
+                return partial;
+            }));
+        }
+
+        Aggregator result = newAggregator();
+        Exception failure = null;
+        for (ForkJoinTask<Aggregator> worker : workers) {
+            try {
+                Aggregator partial = worker.get();
+                if (Objects.isNull(failure)) {
+                    result.merge(partial);
+                }
+            } catch (ExecutionException e) {
+                if (Objects.isNull(failure)) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            } catch (InterruptedException e) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                throw new TransactionAbortedException();
+            }
+        }
+        if (failure instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) failure;
+        } else if (failure instanceof DbException) {
+            throw (DbException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (Objects.nonNull(failure)) {
+            throw new DbException("parallel aggregate failed: " + failure);
+        }
+        return result;
+    }
+
+    private void aggregateMorsel(int morsel, Aggregator partial)
+            throws DbException, TransactionAbortedException {
+        int start = morsel * MORSEL_PAGES;
+        OpIterator it = pipeline.build(new SeqScan(tid, tableId, tableAlias, start, start + MORSEL_PAGES));
+        it.open();
+        try {
+            BatchIterator input = BatchAdapter.of(it);
+            TupleBatch batch;
+            while (Objects.nonNull(batch = input.nextBatch())) {
+                partial.mergeBatch(batch);
+            }
+        } finally {
+            it.close();
+        }
+    }
+}
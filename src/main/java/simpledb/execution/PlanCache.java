@@ -1,53 +1,144 @@
 package simpledb.execution;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * A set of joins is a bitmask over the indexes of the joins in the query,
+ * and the cache is a flat table with one slot per set: the sets it can hold
+ * are fixed when it is created, kept sorted so that a mask is found by
+ * binary search. Each slot keeps the cost and cardinality of the best plan
+ * for its set, its best split into the two subplans joined last, and the
+ * join that combines them. A subplan with no joins is a base table, so a
+ * left-deep plan always has an empty right subplan.
+ */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
+    /** 可缓存的连接集合，升序 */
+    final long[] masks;
+    final double[] bestCosts;
+    final int[] bestCardinalities;
+    final long[] bestLefts;
+    final long[] bestRights;
+    final LogicalJoinNode[] lastJoins;
+
+    /** Create a cache for the given sets of joins
+        @param masks the sets of joins that plans may be added for; the array is sorted in place
+    */
+    public PlanCache(long[] masks) {
+        Arrays.sort(masks);
+        this.masks = masks;
+        bestCosts = new double[masks.length];
+        bestCardinalities = new int[masks.length];
+        bestLefts = new long[masks.length];
+        bestRights = new long[masks.length];
+        lastJoins = new LogicalJoinNode[masks.length];
+    }
+
+    private int slot(long s) {
+        int slot = Arrays.binarySearch(masks, s);
+        if (slot < 0) {
+            throw new IllegalArgumentException("no slot for join set " + Long.toBinaryString(s));
+        }
+        return slot;
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        @param s the set of joins for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param left the joins of one subplan joined by the last join
+        @param right the joins of the other subplan, disjoint from left
+        @param join the last join of the plan, which joins the two subplans
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    public void addPlan(long s, double cost, int card, long left, long right, LogicalJoinNode join) {
+        int slot = slot(s);
+        bestCosts[slot] = cost;
+        bestCardinalities[slot] = card;
+        bestLefts[slot] = left;
+        bestRights[slot] = right;
+        lastJoins[slot] = join;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
+
+    /** @return true if a plan was added for the set of joins */
+    public boolean hasPlan(long s) {
+        int slot = Arrays.binarySearch(masks, s);
+        return slot >= 0 && lastJoins[slot] != null;
+    }
+
+    /** Find the best join order in the cache for the specified plan
         @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @return the best order for s in the cache, or null if there is none.  The joins are in the order of
+        a post-order walk of the join tree: both subplans of a join come before it
+    */
+    public List<LogicalJoinNode> getOrder(long s) {
+        List<Long> joinSets = getJoinSets(s);
+        if (joinSets == null) {
+            return null;
+        }
+        List<LogicalJoinNode> order = new ArrayList<>(joinSets.size());
+        for (long m : joinSets) {
+            order.add(getJoin(m));
+        }
+        return order;
+    }
+
+    /** Find the sets of joins of the subplans of the best plan for s
+        @return for each join in {@link #getOrder(long)}, the set of joins in the subplan it is the last join of,
+        or null if there is no plan for s
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public List<Long> getJoinSets(long s) {
+        List<Long> joinSets = new ArrayList<>();
+        return addJoinSets(s, joinSets) ? joinSets : null;
+    }
+
+    private boolean addJoinSets(long s, List<Long> joinSets) {
+        if (s == 0) {
+            return true;
+        }
+        if (!hasPlan(s)) {
+            return false;
+        }
+        if (!addJoinSets(getLeft(s), joinSets) || !addJoinSets(getRight(s), joinSets)) {
+            return false;
+        }
+        joinSets.add(s);
+        return true;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
+
+    /** Find the cost of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        return bestCosts[slot(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
         @param s the set of joins to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        return bestCardinalities[slot(s)];
+    }
+
+    /** @return the joins of the left subplan of the best plan for s */
+    public long getLeft(long s) {
+        return bestLefts[slot(s)];
+    }
+
+    /** @return the joins of the right subplan of the best plan for s, or 0 if it is a base table */
+    public long getRight(long s) {
+        return bestRights[slot(s)];
+    }
+
+    /** @return the last join of the best plan for s */
+    public LogicalJoinNode getJoin(long s) {
+        return lastJoins[slot(s)];
     }
 }
@@ -3,20 +3,22 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
-import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * Project is an operator that implements a relational projection.
+ * Output batches share the column arrays and selection of the input batches.
  */
-public class Project extends Operator {
+public class Project extends BatchOperator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] outFields;
+    private transient BatchIterator input;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -42,6 +44,10 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+        }
     }
 
     public TupleDesc getTupleDesc() {
@@ -51,34 +57,32 @@ public class Project extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
+        input = BatchAdapter.of(child);
         super.open();
     }
 
     public void close() {
         super.close();
         child.close();
+        input = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        super.rewind();
         child.rewind();
     }
 
     /**
-     * Operator.fetchNext implementation. Iterates over tuples from the child
-     * operator, projecting out the fields from the tuple
+     * BatchOperator.fetchNextBatch implementation. Reads batches from the
+     * child operator and projects out the fields, keeping the RecordIds
      *
-     * @return The next tuple, or null if there are no more tuples
+     * @return The next batch, or null if there are no more tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException,
+    protected TupleBatch fetchNextBatch() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (!child.hasNext()) return null;
-        Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
-        newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
-        }
-        return newTuple;
+        TupleBatch batch = input.nextBatch();
+        if (Objects.isNull(batch)) return null;
+        return batch.project(outFields, td);
     }
 
     @Override
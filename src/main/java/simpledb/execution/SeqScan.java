@@ -5,7 +5,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -15,11 +17,30 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * It can also hand out the tuples in batches, see {@link BatchIterator}.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+
+    /**
+     * 带别名前缀的TupleDesc
+     */
+    private TupleDesc td;
+
+    /**
+     * 扫描的页范围[startPage, endPage)，默认整个表
+     */
+    private final int startPage;
+    private final int endPage;
+
+    private transient DbFileIterator it;
+    private transient TupleBatch batch;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -38,6 +59,27 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a scan over a range of pages of a heap file, such as one morsel
+     * of a parallel scan.
+     *
+     * @param startPage the first page to read
+     * @param endPage   one past the last page to read
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     * @see HeapFile#iterator(TransactionId, int, int)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        if ((startPage != 0 || endPage != Integer.MAX_VALUE)
+                && !(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("only heap files can be scanned by page range");
+        }
+        this.tid = tid;
+        this.startPage = startPage;
+        this.endPage = endPage;
+        reset(tableid, tableAlias);
     }
 
     /**
@@ -46,7 +88,21 @@ public class SeqScan implements OpIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan runs as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
     }
 
     /**
@@ -55,7 +111,7 @@ public class SeqScan implements OpIterator {
     public String getAlias()
     {
         // some code goes here
-        return null;
+        return tableAlias;
     }
 
     /**
@@ -72,6 +128,16 @@ public class SeqScan implements OpIterator {
      */
     public void reset(int tableid, String tableAlias) {
         // some code goes here
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        TupleDesc fileTd = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[fileTd.numFields()];
+        String[] names = new String[fileTd.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = fileTd.getFieldType(i);
+            names[i] = tableAlias + "." + fileTd.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -80,6 +146,13 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (startPage == 0 && endPage == Integer.MAX_VALUE) {
+            it = file.iterator(tid);
+        } else {
+            it = ((HeapFile) file).iterator(tid, startPage, endPage);
+        }
+        it.open();
     }
 
     /**
@@ -94,26 +167,55 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return td;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return false;
+        if (Objects.isNull(it)) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        return it.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (Objects.isNull(it)) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        return it.next();
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (Objects.isNull(it)) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        if (Objects.isNull(batch)) {
+            batch = new TupleBatch(td);
+        }
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.addTuple(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
     }
 
     public void close() {
         // some code goes here
+        if (Objects.nonNull(it)) {
+            it.close();
+        }
+        it = null;
+        batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        if (Objects.isNull(it)) {
+            throw new IllegalStateException("SeqScan not yet open");
+        }
+        it.rewind();
     }
 }
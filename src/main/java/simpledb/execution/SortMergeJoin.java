@@ -0,0 +1,329 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeScan;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted on their join fields by
+ * reading them side by side. An input that is not already in ascending order
+ * of its join field (see {@link #isSortedOn}) is sorted first with an
+ * {@link OrderBy}, which spills to disk when it does not fit in memory.
+ * 排序归并连接，支持等值和范围谓词
+ * <p>
+ * For EQUALS both inputs are read once, and only the child2 rows sharing the
+ * current key are held in memory. For an ordering comparison, the matches of
+ * each row of one input are a prefix of the other sorted input: for
+ * GREATER_THAN and GREATER_THAN_OR_EQ the child2 rows below a child1 row, for
+ * LESS_THAN and LESS_THAN_OR_EQ the child1 rows below a child2 row. The
+ * outer input is sorted too, so the prefixes only grow. The join remembers
+ * how long the last prefix was: those inner rows are output again without
+ * being compared, and only the rows after them are compared until the first
+ * one past the new prefix. An outer row that does not match even the first
+ * inner row has an empty prefix and is skipped without reading the inner
+ * input. Otherwise the inner input is rewound for the outer row. Nothing
+ * beyond the sorts is held in memory. A spilled sort collapses its runs into
+ * one file the first time it is rewound, so later rewinds open one file and
+ * read only the pages of the prefix. Output rows are the concatenation of a
+ * child1 row and a child2 row, as with {@link Join}.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /**
+     * 排好序的两侧输入：子节点本身，或排序它的OrderBy
+     */
+    transient private OpIterator left, right;
+
+    /**
+     * 左侧当前元组
+     */
+    transient private Tuple t1 = null;
+
+    /**
+     * 等值连接：右侧与当前键相等的元组及输出位置，和右侧下一个元组
+     */
+    transient private List<Tuple> group = null;
+    transient private Tuple nextRight = null;
+
+    /**
+     * 等值连接：当前左侧元组在分组中的输出位置
+     */
+    transient private int pos = 0;
+
+    /**
+     * 范围连接：外侧每个元组的匹配是内侧的一段前缀，外侧是否为左侧输入
+     */
+    transient private boolean outerIsLeft;
+    transient private OpIterator outer, inner;
+    transient private Tuple outerRow = null;
+
+    /**
+     * 范围连接：当前外侧元组已输出的匹配数，和上一个外侧元组的前缀长度
+     */
+    transient private int matched = 0;
+    transient private int boundary = 0;
+
+    /**
+     * 范围连接：内侧的第一个元组（内侧为空时为null），读到后才有效
+     */
+    transient private Tuple firstInner = null;
+    transient private boolean firstInnerKnown = false;
+
+    /**
+     * 范围连接：内侧自打开或上次重置后是否已被读过
+     */
+    transient private boolean innerRead = false;
+
+    /**
+     * @param p      the join predicate; its operator must be EQUALS or an
+     *               ordering comparison
+     * @param child1 the left input
+     * @param child2 the right input
+     * @throws IllegalArgumentException if the predicate is not supported
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("sort-merge join does not support " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate the operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS
+                || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if the iterator is known to return its tuples in
+     * ascending order of the field: an ascending OrderBy or TopN on it, or a
+     * BTreeScan whose key it is
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() && t.getOrderByField() == field;
+        }
+        if (it instanceof BTreeScan) {
+            return ((BTreeScan) it).getKeyField() == field;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = isSortedOn(child1, pred.getField1()) ? child1 : new OrderBy(pred.getField1(), true, child1);
+        right = isSortedOn(child2, pred.getField2()) ? child2 : new OrderBy(pred.getField2(), true, child2);
+        left.open();
+        right.open();
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        t1 = null;
+        pos = 0;
+        outerRow = null;
+        matched = 0;
+        boundary = 0;
+        firstInner = null;
+        firstInnerKnown = false;
+        innerRead = false;
+        Predicate.Op op = pred.getOperator();
+        if (op == Predicate.Op.EQUALS) {
+            group = new ArrayList<>();
+            nextRight = right.hasNext() ? right.next() : null;
+        } else {
+            outerIsLeft = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            outer = outerIsLeft ? left : right;
+            inner = outerIsLeft ? right : left;
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (left != null && left != child1) {
+            left.close();
+        }
+        if (right != null && right != child2) {
+            right.close();
+        }
+        child2.close();
+        child1.close();
+        left = null;
+        right = null;
+        t1 = null;
+        group = null;
+        nextRight = null;
+        outer = null;
+        inner = null;
+        outerRow = null;
+        firstInner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        start();
+    }
+
+    /**
+     * Compare the join field of a child1 tuple with that of a child2 tuple.
+     */
+    private int compareKeys(Tuple l, Tuple r) {
+        int f1 = pred.getField1();
+        int f2 = pred.getField2();
+        if (l.getTupleDesc().getFieldType(f1) == Type.INT_TYPE
+                && r.getTupleDesc().getFieldType(f2) == Type.INT_TYPE) {
+            return Integer.compare(l.getInt(f1), r.getInt(f2));
+        }
+        Field a = l.getField(f1);
+        Field b = r.getField(f2);
+        if (a.compare(Predicate.Op.EQUALS, b)) {
+            return 0;
+        }
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : -1;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        return pred.getOperator() == Predicate.Op.EQUALS ? nextEquals() : nextRange();
+    }
+
+    private Tuple nextEquals() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (t1 != null && pos < group.size()) {
+                return merge(t1, group.get(pos++));
+            }
+            if (!left.hasNext()) {
+                return null;
+            }
+            t1 = left.next();
+            pos = 0;
+            if (!group.isEmpty() && compareKeys(t1, group.get(0)) == 0) {
+                // 与上一个左侧元组的键相同，复用右侧的分组
+                continue;
+            }
+            group.clear();
+            while (nextRight != null && compareKeys(t1, nextRight) > 0) {
+                nextRight = right.hasNext() ? right.next() : null;
+            }
+            while (nextRight != null && compareKeys(t1, nextRight) == 0) {
+                group.add(nextRight);
+                nextRight = right.hasNext() ? right.next() : null;
+            }
+            if (group.isEmpty() && nextRight == null) {
+                // 右侧已读完，后面的左侧元组都没有匹配
+                return null;
+            }
+        }
+    }
+
+    private Tuple nextRange() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (outerRow != null) {
+                Tuple innerRow = inner.hasNext() ? inner.next() : null;
+                if (matched == 0) {
+                    firstInner = innerRow;
+                    firstInnerKnown = true;
+                }
+                // 上一个外侧元组的前缀一定也是当前元组的匹配，不必比较
+                if (innerRow != null && (matched < boundary || inPrefix(outerRow, innerRow))) {
+                    matched++;
+                    return outerIsLeft ? merge(outerRow, innerRow) : merge(innerRow, outerRow);
+                }
+                // 当前外侧元组的前缀已输出完
+                boundary = matched;
+                outerRow = null;
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            Tuple next = outer.next();
+            if (boundary == 0 && firstInnerKnown && (firstInner == null || !inPrefix(next, firstInner))) {
+                // 前缀为空，不必重读内侧
+                continue;
+            }
+            outerRow = next;
+            matched = 0;
+            if (innerRead) {
+                inner.rewind();
+            }
+            innerRead = true;
+        }
+    }
+
+    /**
+     * @return true if the inner row is in the prefix of the inner input that
+     * the outer row joins with
+     */
+    private boolean inPrefix(Tuple outerRow, Tuple innerRow) {
+        // 内侧键与外侧键比较
+        int cmp = outerIsLeft ? -compareKeys(outerRow, innerRow) : compareKeys(innerRow, outerRow);
+        Predicate.Op op = pred.getOperator();
+        boolean strict = op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN;
+        return strict ? cmp < 0 : cmp <= 0;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(comboTD);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+}
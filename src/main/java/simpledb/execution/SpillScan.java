@@ -0,0 +1,78 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.CloseableIterator;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * SpillScan reads the tuples of a {@link SpillFile}, one at a time or in
+ * batches. Closing the scan does not delete the file.
+ * 读取溢出文件的迭代器
+ */
+public class SpillScan implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SpillFile file;
+    private transient CloseableIterator<Tuple> it;
+    private transient TupleBatch batch;
+
+    public SpillScan(SpillFile file) {
+        this.file = file;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        close();
+        it = file.iterator();
+    }
+
+    private void checkOpen() {
+        if (Objects.isNull(it)) {
+            throw new IllegalStateException("SpillScan is not open");
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        checkOpen();
+        return it.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        checkOpen();
+        return it.next();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        checkOpen();
+        if (Objects.isNull(batch)) {
+            batch = new TupleBatch(file.getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.addTuple(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        open();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return file.getTupleDesc();
+    }
+
+    public void close() {
+        if (Objects.nonNull(it)) {
+            it.close();
+            it = null;
+        }
+        batch = null;
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * StreamAggregate computes the same results as {@link Aggregate} for a child
+ * that returns tuples with equal values of one of the group by fields next
+ * to each other, such as a scan of a B+ tree keyed on that field or an
+ * OrderBy on it. Groups are only kept for the current value of the ordered
+ * field: when the value changes, every group held is complete and is
+ * output. Grouping by the ordered field alone therefore holds a single
+ * group, and results come out while the child is still being read.
+ * 输入按某个分组字段有序时的流式聚合：该字段的值一变，内存中的分组即已完整，立即输出
+ * <p>
+ * Groups come out in the child's order of the ordered field. Other group by
+ * fields are aggregated with a {@link HashAggregator} within each run of
+ * the ordered field.
+ */
+public class StreamAggregate extends Aggregate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int orderedField;
+
+    /**
+     * Aggregate a child that is ordered on its group by field.
+     *
+     * @param gfield the group by field, which the child is ordered on
+     */
+    public StreamAggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[]{afield}, new int[]{gfield}, new Aggregator.Op[]{aop}, gfield);
+    }
+
+    /**
+     * @param orderedField a field of the child whose equal values are
+     *                     adjacent; it must be one of gfields
+     * @see Aggregate#Aggregate(OpIterator, int[], int[], Aggregator.Op[])
+     */
+    public StreamAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                           int orderedField) {
+        this(child, afields, gfields, aops, orderedField, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * @param maxGroups the largest number of groups kept in memory for one
+     *                  value of the ordered field
+     * @throws IllegalArgumentException if orderedField is not a group by
+     *                                  field
+     */
+    public StreamAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                           int orderedField, int maxGroups) {
+        super(child, afields, gfields, aops, maxGroups);
+        if (Arrays.stream(gfields).noneMatch(g -> g == orderedField)) {
+            throw new IllegalArgumentException("field " + orderedField + " is not a group by field");
+        }
+        this.orderedField = orderedField;
+    }
+
+    /**
+     * @return the field of the child the input is ordered on
+     */
+    public int orderedField() {
+        return orderedField;
+    }
+
+    /**
+     * @return true if the iterator is known to return tuples with equal
+     * values of the field next to each other: it is sorted on the field, in
+     * either direction, or filters an iterator that is
+     */
+    public static boolean isGroupedOn(OpIterator it, int field) {
+        if (it instanceof Filter) {
+            return isGroupedOn(((Filter) it).getChildren()[0], field);
+        }
+        if (it instanceof OrderBy) {
+            return ((OrderBy) it).getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            return ((TopN) it).getOrderByField() == field;
+        }
+        if (it instanceof SeqScan) {
+            // B+树文件按键顺序扫描叶子页
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) it).getTableId());
+            return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field;
+        }
+        return SortMergeJoin.isSortedOn(it, field);
+    }
+
+    @Override
+    protected OpIterator resultIterator() {
+        return new GroupStream();
+    }
+
+    /**
+     * Reads the child a batch at a time and returns the groups of each run
+     * of the ordered field as soon as the run ends
+     */
+    private class GroupStream extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient OpIterator child;
+        private transient BatchIterator input;
+        private transient HashAggregator aggregator;
+
+        /**
+         * 已完成、尚未返回的分组结果
+         */
+        private transient Iterator<Tuple> pending;
+        private transient boolean done;
+
+        /**
+         * 当前一段输入中有序字段的值
+         */
+        private transient boolean hasCurrent;
+        private transient int currentInt;
+        private transient Field currentField;
+
+        public void open() throws DbException, TransactionAbortedException {
+            child = StreamAggregate.this.getChildren()[0];
+            child.open();
+            start();
+            super.open();
+        }
+
+        private void start() {
+            input = BatchAdapter.of(child);
+            aggregator = (HashAggregator) newAggregator();
+            pending = Collections.emptyIterator();
+            done = false;
+            hasCurrent = false;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            start();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (!pending.hasNext()) {
+                if (done) {
+                    return null;
+                }
+                TupleBatch batch = input.nextBatch();
+                if (Objects.isNull(batch)) {
+                    done = true;
+                    pending = aggregator.takeResults().iterator();
+                } else {
+                    pending = mergeRuns(batch).iterator();
+                }
+            }
+            return pending.next();
+        }
+
+        /**
+         * Merge the selected rows of a batch, cutting it where the ordered
+         * field changes value
+         *
+         * @return the results of the groups completed in this batch
+         */
+        private List<Tuple> mergeRuns(TupleBatch batch) throws DbException, TransactionAbortedException {
+            List<Tuple> completed = new ArrayList<>();
+            int n = batch.numSelected();
+            int[] selected = new int[n];
+            for (int i = 0; i < n; i++) {
+                selected[i] = batch.selectedRow(i);
+            }
+            boolean intColumn = batch.isIntColumn(orderedField);
+            int start = 0;
+            for (int i = 0; i < n; i++) {
+                boolean changed;
+                if (intColumn) {
+                    int value = batch.getInt(orderedField, selected[i]);
+                    changed = hasCurrent && value != currentInt;
+                    currentInt = value;
+                } else {
+                    Field value = batch.getField(orderedField, selected[i]);
+                    changed = hasCurrent && !value.equals(currentField);
+                    currentField = value;
+                }
+                hasCurrent = true;
+                if (changed) {
+                    mergeRows(batch, selected, start, i);
+                    completed.addAll(aggregator.takeResults());
+                    start = i;
+                }
+            }
+            mergeRows(batch, selected, start, n);
+            return completed;
+        }
+
+        private void mergeRows(TupleBatch batch, int[] selected, int from, int to) {
+            if (from == to) {
+                return;
+            }
+            batch.select(Arrays.copyOfRange(selected, from, to), to - from);
+            aggregator.mergeBatch(batch);
+        }
+
+        public TupleDesc getTupleDesc() {
+            return StreamAggregate.this.getTupleDesc();
+        }
+
+        public OpIterator[] getChildren() {
+            return new OpIterator[]{child};
+        }
+
+        public void setChildren(OpIterator[] children) {
+            child = children[0];
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n. It reads its child once, keeping only
+ * the best n tuples seen so far in a binary heap whose root is the worst of
+ * them, so it takes O(n) memory and O(rows * log n) time instead of sorting
+ * the whole input. The child is read in batches and a row is only turned
+ * into a Tuple if it beats the root. Ties keep their input order, as with
+ * {@link OrderBy}.
+ * 堆实现的Top-N：只保留前n个元组
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private final Comparator<Tuple> comparator;
+
+    /**
+     * 堆中的元组及其输入序号，根为最差的元组
+     */
+    private transient Tuple[] heap;
+    private transient long[] seq;
+    private transient int heapSize;
+
+    private transient List<Tuple> result;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * @param orderbyField the field to sort on
+     * @param asc          true if the sort order is ascending
+     * @param limit        the number of tuples to return
+     * @param child        the tuples to sort
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+        this.comparator = new TupleComparator(orderbyField, asc);
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return td.getFieldName(orderByField);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        // LIMIT可能远大于输入，堆按需增长
+        heap = new Tuple[Math.min(limit, TupleBatch.DEFAULT_CAPACITY)];
+        seq = new long[heap.length];
+        heapSize = 0;
+        if (limit > 0) {
+            BatchIterator input = BatchAdapter.of(child);
+            input.open();
+            long n = 0;
+            TupleBatch batch;
+            while ((batch = input.nextBatch()) != null) {
+                for (int i = 0; i < batch.numSelected(); i++) {
+                    int row = batch.selectedRow(i);
+                    if (heapSize < limit) {
+                        push(batch.getTuple(row), n);
+                    } else if (compareRow(batch, row, heap[0]) < 0) {
+                        // 相等时先到的元组在前，所以只有严格更好才替换根
+                        heap[0] = batch.getTuple(row);
+                        seq[0] = n;
+                        siftDown(0);
+                    }
+                    n++;
+                }
+            }
+        }
+
+        Integer[] order = new Integer[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, this::compareEntries);
+        result = new ArrayList<>(heapSize);
+        for (int i : order) {
+            result.add(heap[i]);
+        }
+        heap = null;
+        seq = null;
+        it = result.iterator();
+        super.open();
+    }
+
+    /**
+     * Compare a row of a batch with a tuple on the sort field, in output
+     * order, without building a Tuple for the row.
+     */
+    private int compareRow(TupleBatch batch, int row, Tuple t) {
+        int cmp;
+        if (batch.isIntColumn(orderByField)) {
+            cmp = Integer.compare(batch.getInt(orderByField, row), t.getInt(orderByField));
+        } else if (batch.getField(orderByField, row).compare(Predicate.Op.EQUALS, t.getField(orderByField))) {
+            cmp = 0;
+        } else {
+            cmp = batch.getField(orderByField, row).compare(Predicate.Op.GREATER_THAN, t.getField(orderByField)) ? 1 : -1;
+        }
+        return asc ? cmp : -cmp;
+    }
+
+    /**
+     * Compare two heap entries in output order; entries with equal keys come
+     * in input order, and an entry is equal only to itself.
+     */
+    private int compareEntries(int a, int b) {
+        int cmp = comparator.compare(heap[a], heap[b]);
+        return cmp != 0 ? cmp : Long.compare(seq[a], seq[b]);
+    }
+
+    /**
+     * @return true if heap entry a comes after heap entry b in the output
+     */
+    private boolean worse(int a, int b) {
+        return compareEntries(a, b) > 0;
+    }
+
+    private void push(Tuple t, long n) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, (int) Math.min(limit, 2L * heap.length));
+            seq = Arrays.copyOf(seq, heap.length);
+        }
+        int i = heapSize++;
+        heap[i] = t;
+        seq[i] = n;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!worse(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int worst = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && worse(left, worst)) {
+                worst = left;
+            }
+            if (right < heapSize && worse(right, worst)) {
+                worst = right;
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        Tuple t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+        long s = seq[a];
+        seq[a] = seq[b];
+        seq[b] = s;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result = null;
+        it = null;
+    }
+
+    public void rewind() {
+        it = result.iterator();
+    }
+
+    protected Tuple fetchNext() {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,270 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Objects;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows in column-major order, plus
+ * an optional selection vector naming the rows that are still live. A filter
+ * narrows the selection instead of moving rows, and a projection shares the
+ * column arrays of its input.
+ * 按列存储的一批元组，带选择向量
+ * <p>
+ * INT_TYPE columns are stored as int arrays, so scans, filters and
+ * aggregates over them never create IntField objects; an IntField is only
+ * built when {@link #getField} or {@link #getTuple} asks for one.
+ * <p>
+ * A batch returned by {@link BatchIterator#nextBatch} is only valid until the
+ * next call on the same iterator; the producer may refill it. Consumers that
+ * keep rows must copy them out, e.g. with {@link #getTuple(int)}.
+ */
+public class TupleBatch {
+
+    /**
+     * 默认每批的行数
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    /**
+     * 非整数列的数据，columns[列][行]，整数列处为null
+     */
+    private final Field[][] columns;
+
+    /**
+     * 整数列的数据，intColumns[列][行]，非整数列处为null
+     */
+    private final int[][] intColumns;
+
+    /**
+     * 每行的RecordId，可能为null
+     */
+    private final RecordId[] recordIds;
+
+    /**
+     * 已填充的行数
+     */
+    private int size;
+
+    /**
+     * 选择向量，为null时表示前size行全部有效
+     */
+    private int[] selection;
+    private int numSelected;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, new Field[td.numFields()][], new int[td.numFields()][], new RecordId[capacity], capacity);
+        for (int col = 0; col < td.numFields(); col++) {
+            if (td.getFieldType(col) == Type.INT_TYPE) {
+                intColumns[col] = new int[capacity];
+            } else {
+                columns[col] = new Field[capacity];
+            }
+        }
+    }
+
+    private TupleBatch(TupleDesc td, Field[][] columns, int[][] intColumns, RecordId[] recordIds,
+                       int capacity) {
+        this.td = td;
+        this.columns = columns;
+        this.intColumns = intColumns;
+        this.recordIds = recordIds;
+        this.capacity = capacity;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows filled in, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numSelected() {
+        return Objects.isNull(selection) ? size : numSelected;
+    }
+
+    /**
+     * @param i a position in the selection, from 0 to numSelected() - 1
+     * @return the row index of the i-th selected row
+     */
+    public int selectedRow(int i) {
+        return Objects.isNull(selection) ? i : selection[i];
+    }
+
+    /**
+     * Replace the selection. The batch keeps a reference to the array.
+     *
+     * @param rows the selected row indexes, in increasing order
+     * @param n    how many entries of rows are used
+     */
+    public void select(int[] rows, int n) {
+        this.selection = rows;
+        this.numSelected = n;
+    }
+
+    /**
+     * Drop all rows and the selection so the batch can be refilled.
+     */
+    public void clear() {
+        size = 0;
+        selection = null;
+        numSelected = 0;
+    }
+
+    /**
+     * Append an empty row and select it. Fill it in with {@link #setField}.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        if (Objects.nonNull(selection)) {
+            throw new IllegalStateException("cannot append to a batch with a selection");
+        }
+        recordIds[size] = null;
+        return size++;
+    }
+
+    /**
+     * Append a copy of the tuple's fields and RecordId.
+     */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        for (int col = 0; col < columns.length; col++) {
+            if (Objects.nonNull(intColumns[col])) {
+                intColumns[col][row] = t.getInt(col);
+            } else {
+                columns[col][row] = t.getField(col);
+            }
+        }
+        recordIds[row] = t.getRecordId();
+    }
+
+    /**
+     * @return the value of a field; for INT_TYPE columns this builds an IntField
+     */
+    public Field getField(int col, int row) {
+        if (Objects.nonNull(intColumns[col])) {
+            return new IntField(intColumns[col][row]);
+        }
+        return columns[col][row];
+    }
+
+    public void setField(int col, int row, Field f) {
+        if (Objects.nonNull(intColumns[col])) {
+            intColumns[col][row] = ((IntField) f).getValue();
+        } else {
+            columns[col][row] = f;
+        }
+    }
+
+    /**
+     * @return true if the column is stored as an int array
+     */
+    public boolean isIntColumn(int col) {
+        return Objects.nonNull(intColumns[col]);
+    }
+
+    public int getInt(int col, int row) {
+        return intColumns[col][row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        intColumns[col][row] = value;
+    }
+
+    /**
+     * @return the array backing an INT_TYPE column; entries past size() are
+     * garbage
+     */
+    public int[] intColumn(int col) {
+        if (Objects.isNull(intColumns[col])) {
+            throw new IllegalArgumentException("column " + col + " is not an INT_TYPE column");
+        }
+        return intColumns[col];
+    }
+
+    /**
+     * @return the array backing a column that is not INT_TYPE; entries past
+     * size() are garbage
+     * @see #intColumn(int)
+     */
+    public Field[] column(int col) {
+        if (Objects.isNull(columns[col])) {
+            throw new IllegalArgumentException("column " + col + " is an INT_TYPE column");
+        }
+        return columns[col];
+    }
+
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        recordIds[row] = rid;
+    }
+
+    /**
+     * Build a Tuple from one row of the batch.
+     *
+     * @param row a row index (not a position in the selection)
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int col = 0; col < columns.length; col++) {
+            t.setField(col, getField(col, row));
+        }
+        t.setRecordId(recordIds[row]);
+        return t;
+    }
+
+    /**
+     * Return a batch that shares this batch's rows, RecordIds and selection
+     * but only has the given columns.
+     *
+     * @param cols the columns to keep, in output order
+     * @param td   the schema of the result
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        Field[][] projected = new Field[cols.length][];
+        int[][] projectedInts = new int[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            projected[i] = columns[cols[i]];
+            projectedInts[i] = intColumns[cols[i]];
+        }
+        TupleBatch view = new TupleBatch(td, projected, projectedInts, recordIds, capacity);
+        view.size = size;
+        view.selection = selection;
+        view.numSelected = numSelected;
+        return view;
+    }
+}
@@ -2,16 +2,14 @@ package simpledb.optimizer;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.List;
-
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+    cost and cardinality of the optimal plan ending with join.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
-    public List<LogicalJoinNode> plan;
+    /** The last join of the optimal subplan; the joins before it are in the PlanCache */
+    public LogicalJoinNode join;
 }
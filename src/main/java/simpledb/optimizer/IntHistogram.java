@@ -6,6 +6,20 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+
+    /**
+     * 每个桶覆盖的值域宽度，至少为1
+     */
+    private final double width;
+
+    /**
+     * 各桶中的值个数，及值的总数
+     */
+    private final int[] heights;
+    private int ntups = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -24,6 +38,24 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        // 桶数多于值域时，每个值一个桶
+        int n = (int) Math.max(1, Math.min(buckets, range));
+        this.width = (double) range / n;
+        this.heights = new int[n];
+    }
+
+    private int bucket(int v) {
+        return (int) Math.min(heights.length - 1, (long) ((v - (long) min) / width));
+    }
+
+    /**
+     * @return the smallest value in bucket b
+     */
+    private double left(int b) {
+        return min + b * width;
     }
 
     /**
@@ -32,6 +64,43 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if (v < min || v > max) {
+            return;
+        }
+        heights[bucket(v)]++;
+        ntups++;
+    }
+
+    /**
+     * @return the fraction of values equal to v, assuming the values of a
+     * bucket are spread evenly over its range
+     */
+    private double equalsSelectivity(int v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        return heights[b] / Math.max(1.0, width) / ntups;
+    }
+
+    /**
+     * @return the fraction of values greater than v
+     */
+    private double greaterSelectivity(int v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        // v所在桶中大于v的部分，加上右边各桶
+        double right = left(b) + width;
+        double part = Math.max(0.0, (right - (v + 1)) / width) * heights[b];
+        for (int i = b + 1; i < heights.length; i++) {
+            part += heights[i];
+        }
+        return part / ntups;
     }
 
     /**
@@ -47,7 +116,34 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (ntups == 0) {
+            return 0.0;
+        }
+        double selectivity;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                selectivity = equalsSelectivity(v);
+                break;
+            case NOT_EQUALS:
+                selectivity = 1.0 - equalsSelectivity(v);
+                break;
+            case GREATER_THAN:
+                selectivity = greaterSelectivity(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                selectivity = greaterSelectivity(v) + equalsSelectivity(v);
+                break;
+            case LESS_THAN:
+                selectivity = 1.0 - greaterSelectivity(v) - equalsSelectivity(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                selectivity = 1.0 - greaterSelectivity(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.min(1.0, Math.max(0.0, selectivity));
     }
     
     /**
@@ -61,7 +157,15 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if (ntups == 0) {
+            return 1.0;
+        }
+        // 随机取一个值做等值比较的期望选择率
+        double sum = 0.0;
+        for (int h : heights) {
+            sum += (double) h * h;
+        }
+        return sum / Math.max(1.0, width) / ((double) ntups * ntups);
     }
     
     /**
@@ -69,6 +173,10 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max + "]:");
+        for (int b = 0; b < heights.length; b++) {
+            sb.append(' ').append(heights[b]);
+        }
+        return sb.toString();
     }
 }
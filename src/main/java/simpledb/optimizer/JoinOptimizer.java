@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -16,6 +18,37 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+
+    /** The physical join operators the optimizer can choose between */
+    public enum JoinAlgorithm {
+        /** {@link Join}: any predicate */
+        NESTED_LOOP,
+        /** {@link HashEquiJoin}: EQUALS only */
+        HASH,
+        /** {@link SortMergeJoin}: EQUALS and ordering comparisons */
+        SORT_MERGE,
+        /**
+         * {@link IndexNestedLoopJoin}: EQUALS and ordering comparisons, when
+         * the inner input is a table with a B+ tree on the join field
+         */
+        INDEX_NESTED_LOOP
+    }
+
+    /**
+     * 估计代价时假设的B+树内部页扇出
+     */
+    static final int INDEX_FANOUT = 100;
+
+    /** Queries with more joins than this are ordered greedily instead of by dynamic programming */
+    public static final int DEFAULT_DP_JOIN_LIMIT = 14;
+
+    /** Time in milliseconds spent improving a greedy join order */
+    public static final long DEFAULT_PLANNING_BUDGET = 100;
+
+    private static int dpJoinLimit = DEFAULT_DP_JOIN_LIMIT;
+
+    private static long planningBudget = DEFAULT_PLANNING_BUDGET;
+
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
@@ -32,6 +65,30 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    public static int getDpJoinLimit() {
+        return dpJoinLimit;
+    }
+
+    /**
+     * Set the largest number of joins that {@link #orderJoins} plans by
+     * dynamic programming; larger queries are ordered greedily
+     */
+    public static void setDpJoinLimit(int limit) {
+        JoinOptimizer.dpJoinLimit = limit;
+    }
+
+    public static long getPlanningBudget() {
+        return planningBudget;
+    }
+
+    /**
+     * Set the time in milliseconds {@link #orderJoins} may spend improving a
+     * greedy join order
+     */
+    public static void setPlanningBudget(long millis) {
+        JoinOptimizer.planningBudget = millis;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -73,18 +130,31 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        JoinAlgorithm algorithm = lj.algorithm;
+        if (algorithm == null) {
+            // no cost estimate: hash equi-joins unless both inputs are
+            // already sorted on the keys, and merge ordering comparisons
+            if (lj.p == Predicate.Op.EQUALS) {
+                algorithm = SortMergeJoin.isSortedOn(plan1, t1id)
+                        && SortMergeJoin.isSortedOn(plan2, t2id) ? JoinAlgorithm.SORT_MERGE : JoinAlgorithm.HASH;
+            } else {
+                algorithm = SortMergeJoin.supports(lj.p) ? JoinAlgorithm.SORT_MERGE : JoinAlgorithm.NESTED_LOOP;
+            }
+        }
 
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
+        if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP) {
+            j = instantiateIndexJoin(p, plan1, plan2);
+            if (j != null) {
+                return j;
             }
+            // 内层不是带索引的表，退回到默认算法
+            return instantiateJoin(lj.withAlgorithm(null), plan1, plan2);
+        }
+
+        if (algorithm == JoinAlgorithm.HASH && lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (algorithm == JoinAlgorithm.SORT_MERGE && SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -93,6 +163,38 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Build an index nested-loop join if plan2 is a scan of a table indexed
+     * on the join field, possibly under filters. The filters are applied on
+     * top of the join instead, shifted past plan1's fields.
+     *
+     * @return the join, or null if plan2 cannot be answered by an index
+     */
+    private static OpIterator instantiateIndexJoin(JoinPredicate p, OpIterator plan1, OpIterator plan2) {
+        List<Filter> filters = new ArrayList<>();
+        OpIterator inner = plan2;
+        while (inner instanceof Filter) {
+            filters.add((Filter) inner);
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (!(inner instanceof SeqScan)) {
+            return null;
+        }
+        SeqScan scan = (SeqScan) inner;
+        if (!IndexNestedLoopJoin.canUseIndex(scan.getTableId(), p.getField2(), p.getOperator())) {
+            return null;
+        }
+        OpIterator j = new IndexNestedLoopJoin(scan.getTransactionId(), p, plan1,
+                scan.getTableId(), scan.getAlias());
+        // 从最靠近扫描的过滤开始重新套上
+        int offset = plan1.getTupleDesc().numFields();
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            Predicate pred = filters.get(i).getPredicate();
+            j = new Filter(new Predicate(pred.getField() + offset, pred.getOp(), pred.getOperand()), j);
+        }
+        return j;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -126,12 +228,174 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            return estimateJoinCost(j, true, card1, card2, cost1, cost2);
+        }
+    }
+
+    /**
+     * @param innerIsTable true if the right-hand side is a base table rather
+     *                     than a join, so that an index on it can be used
+     */
+    private double estimateJoinCost(LogicalJoinNode j, boolean innerIsTable, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode) {
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
         }
+        JoinAlgorithm algorithm = chooseJoinAlgorithm(j, innerIsTable, card1, card2, cost1, cost2);
+        return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * @return the algorithms that can evaluate the join's predicate. An
+     *         equi-join is never run as a nested loop: the hash join reads
+     *         each input once, which is never much worse.
+     */
+    static List<JoinAlgorithm> candidateAlgorithms(Predicate.Op op) {
+        if (op == Predicate.Op.EQUALS) {
+            return Arrays.asList(JoinAlgorithm.HASH, JoinAlgorithm.SORT_MERGE);
+        } else if (SortMergeJoin.supports(op)) {
+            return Arrays.asList(JoinAlgorithm.NESTED_LOOP, JoinAlgorithm.SORT_MERGE);
+        }
+        return Collections.singletonList(JoinAlgorithm.NESTED_LOOP);
+    }
+
+    /**
+     * @return true if the table is stored in a B+ tree keyed on the field, so
+     *         it can be the inner input of an index nested-loop join
+     */
+    private boolean hasIndex(String tableAlias, String field) {
+        Integer tableId = tableAlias == null ? null : p.getTableId(tableAlias);
+        if (tableId == null) {
+            return false;
+        }
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(tableId);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        if (!(file instanceof BTreeFile)) {
+            return false;
+        }
+        try {
+            return file.getTupleDesc().fieldNameToIndex(field) == ((BTreeFile) file).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Pick the cheapest algorithm for a join, with the same arguments as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * The right-hand side is taken to be a base table.
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        return chooseJoinAlgorithm(j, true, card1, card2, cost1, cost2);
+    }
+
+    private JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, boolean innerIsTable, int card1, int card2,
+            double cost1, double cost2) {
+        List<JoinAlgorithm> candidates = new ArrayList<>(candidateAlgorithms(j.p));
+        if (innerIsTable && SortMergeJoin.supports(j.p) && hasIndex(j.t2Alias, j.f2PureName)) {
+            candidates.add(JoinAlgorithm.INDEX_NESTED_LOOP);
+        }
+        JoinAlgorithm best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm algorithm : candidates) {
+            double cost = estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+            if (best == null || cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of running a join with the given algorithm. Costs
+     * count page reads through the scan costs cost1 and cost2, and one per
+     * tuple comparison. Producing the output costs the same for every
+     * algorithm, so it is left out.
+     * <ul>
+     * <li>NESTED_LOOP reads the inner input once per outer tuple.</li>
+     * <li>HASH reads each input once; if the left input does not fit in the
+     * hash table both inputs are also written out and read back.</li>
+     * <li>SORT_MERGE sorts both inputs, n log n comparisons each plus a write
+     * and a read when the input does not fit in memory, and then merges
+     * them. An ordering comparison re-reads the matching prefix of the inner
+     * input for each outer tuple, about a third of it; when the inner input
+     * does not fit in memory those are page reads, after one more write and
+     * read to collapse its runs.</li>
+     * <li>INDEX_NESTED_LOOP descends the right-hand table's B+ tree once per
+     * outer tuple, reading one page per level and comparing log2(card2) keys.
+     * An ordering comparison also reads about a third of the leaves.</li>
+     * </ul>
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm algorithm, int card1, int card2,
+            double cost1, double cost2) {
+        switch (algorithm) {
+            case HASH: {
+                double cost = cost1 + cost2 + card1 + card2;
+                if (card1 > HashEquiJoin.MAP_SIZE) {
+                    cost += 2 * (cost1 + cost2);
+                }
+                return cost;
+            }
+            case SORT_MERGE: {
+                double cost = cost1 + cost2 + sortCost(card1, cost1) + sortCost(card2, cost2) + card1 + card2;
+                if (j.p != Predicate.Op.EQUALS) {
+                    cost += rescanCost(j.p, card1, card2, cost1, cost2);
+                }
+                return cost;
+            }
+            case INDEX_NESTED_LOOP:
+                return cost1 + (double) card1 * probeCost(j, card2, cost2);
+            default:
+                return cost1 + (double) card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the cost of one lookup in the right-hand table's index
+     */
+    private double probeCost(LogicalJoinNode j, int card2, double cost2) {
+        int pages = 1;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId != null && Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile) {
+            pages = Math.max(1, ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).numPages());
+        }
+        double pageCost = cost2 / pages;
+        double levels = 1 + Math.ceil(Math.log(pages) / Math.log(INDEX_FANOUT));
+        double cost = levels * pageCost + Math.log(Math.max(card2, 2)) / Math.log(2);
+        if (j.p != Predicate.Op.EQUALS) {
+            cost += cost2 / 3 + card2 / 3.0;
+        }
+        return cost;
+    }
+
+    /**
+     * @return the page reads of a range sort-merge join rewinding its inner
+     * input: nothing when the inner input is sorted in memory
+     */
+    private static double rescanCost(Predicate.Op op, int card1, int card2, double cost1, double cost2) {
+        // GREATER_THAN*以左侧为外侧，LESS_THAN*以右侧为外侧
+        boolean outerIsLeft = op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        int outerCard = outerIsLeft ? card1 : card2;
+        int innerCard = outerIsLeft ? card2 : card1;
+        double innerCost = outerIsLeft ? cost2 : cost1;
+        if (innerCard <= OrderBy.DEFAULT_MAX_TUPLES) {
+            return 0;
+        }
+        return 2 * innerCost + outerCard * innerCost / 3;
+    }
+
+    private static double sortCost(int card, double scanCost) {
+        double cost = card * (Math.log(Math.max(card, 2)) / Math.log(2));
+        if (card > OrderBy.DEFAULT_MAX_TUPLES) {
+            cost += 2 * scanCost;
+        }
+        return cost;
     }
 
     /**
@@ -167,7 +431,10 @@ public class JoinOptimizer {
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * Estimate the join cardinality of two tables. An equi-join matches each
+     * tuple of the other side at most once when one side joins on its
+     * primary key, and otherwise yields about as many tuples as the larger
+     * input. Other comparisons keep a fixed fraction of the cross product.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -176,44 +443,152 @@ public class JoinOptimizer {
                                                    Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        int equiCard;
+        if (t1pkey && t2pkey) {
+            equiCard = Math.min(card1, card2);
+        } else if (t1pkey) {
+            equiCard = card2;
+        } else if (t2pkey) {
+            equiCard = card1;
+        } else {
+            equiCard = Math.max(card1, card2);
+        }
+        double crossCard = (double) card1 * card2;
+        if (joinOp == Predicate.Op.EQUALS || joinOp == Predicate.Op.LIKE) {
+            card = equiCard;
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (int) Math.min(Integer.MAX_VALUE, crossCard - equiCard);
+        } else {
+            // 范围比较大约保留叉积的30%
+            card = (int) Math.min(Integer.MAX_VALUE, 0.3 * crossCard);
+        }
         return card <= 0 ? 1 : card;
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * Enumerate the sets of joins whose tables are connected by the joins in
+     * the set, which are the only sets a plan without cross products is
+     * built from. Two joins are neighbours when they share a table. As in
+     * DPccp, every connected set is grown from its lowest-numbered join by
+     * adding neighbours with a higher number, so that each set is produced
+     * exactly once and no other set is looked at.
+     *
+     * @param neighbours the neighbours of each join, from
+     *            {@link #joinNeighbours()}
+     * @return the bitmasks of the connected sets of joins, in increasing
+     *         order; a set always comes after its subsets
+     */
+    private static long[] connectedJoinSets(long[] neighbours) {
+        int n = neighbours.length;
+        JoinSets sets = new JoinSets();
+        for (int i = n - 1; i >= 0; i--) {
+            long start = 1L << i;
+            sets.add(start);
+            // 编号不大于i的连接不再加入，留给以它们为起点的集合
+            growConnected(start, (start << 1) - 1, neighbours, sets);
+        }
+        long[] masks = Arrays.copyOf(sets.masks, sets.size);
+        Arrays.sort(masks);
+        return masks;
+    }
+
+    /**
+     * @return for each join, the bitmask of the other joins that share a
+     *         table with it
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-        Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
+    private long[] joinNeighbours() {
+        int n = joins.size();
+        long[] neighbours = new long[n];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < n; k++) {
+                if (i != k && shareTable(joins.get(i), joins.get(k))) {
+                    neighbours[i] |= 1L << k;
                 }
             }
-            els = newels;
         }
+        return neighbours;
+    }
 
-        return els;
+    /**
+     * @return the joins of joinSet that are connected to the table through
+     *         joins in joinSet
+     */
+    private long component(long joinSet, String table, long[] neighbours) {
+        long reached = 0;
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            int i = Long.numberOfTrailingZeros(rest);
+            LogicalJoinNode j = joins.get(i);
+            if (j.t1Alias.equals(table) || table.equals(j.t2Alias)) {
+                reached |= 1L << i;
+            }
+        }
+        long frontier = reached;
+        while (frontier != 0) {
+            long around = 0;
+            for (long rest = frontier; rest != 0; rest &= rest - 1) {
+                around |= neighbours[Long.numberOfTrailingZeros(rest)];
+            }
+            frontier = around & joinSet & ~reached;
+            reached |= frontier;
+        }
+        return reached;
+    }
 
+    /**
+     * Add every connected set that extends s by neighbours outside excluded
+     */
+    private static void growConnected(long s, long excluded, long[] neighbours, JoinSets sets) {
+        long around = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1) {
+            around |= neighbours[Long.numberOfTrailingZeros(rest)];
+        }
+        around &= ~excluded;
+        if (around == 0) {
+            return;
+        }
+        for (long sub = around; sub != 0; sub = (sub - 1) & around) {
+            sets.add(s | sub);
+        }
+        for (long sub = around; sub != 0; sub = (sub - 1) & around) {
+            growConnected(s | sub, excluded | around, neighbours, sets);
+        }
+    }
+
+    private static boolean shareTable(LogicalJoinNode j1, LogicalJoinNode j2) {
+        return j1.t1Alias.equals(j2.t1Alias) || j1.t1Alias.equals(j2.t2Alias)
+                || (j1.t2Alias != null && (j1.t2Alias.equals(j2.t1Alias) || j1.t2Alias.equals(j2.t2Alias)));
+    }
+
+    /**
+     * 可增长的掩码数组
+     */
+    private static final class JoinSets {
+        long[] masks = new long[64];
+        int size;
+
+        void add(long mask) {
+            if (size == masks.length) {
+                masks = Arrays.copyOf(masks, size * 2);
+            }
+            masks[size++] = mask;
+        }
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * This is Selinger-style dynamic programming over bushy plans. Sets of
+     * joins are bitmasks over the indexes in {@link #joins}, and only the
+     * connected sets are planned. A plan for a set ends with one of its
+     * joins. Without that join the rest of the set falls apart into the
+     * joins connected to either of its tables: the plan joins the best plans
+     * for the two parts, where an empty part is a base table. When the rest
+     * stays connected, because the join closes a cycle, the join is applied
+     * to the plan for the rest as in a left-deep plan. Queries with more
+     * joins than {@link #getDpJoinLimit()} are ordered by
+     * {@link #orderJoinsGreedily} instead, which only builds left-deep
+     * plans.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -225,8 +600,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed: a post-order walk of the join tree, so
+     *         that a join of two tables that were each joined before joins
+     *         their two subplans.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -237,17 +614,193 @@ public class JoinOptimizer {
             throws ParsingException {
 
         // some code goes here
-        //Replace the following
-        return joins;
+        int n = joins.size();
+        if (n == 0) {
+            return joins;
+        }
+        if (n >= Long.SIZE) {
+            // 连接数超出位图的表示范围，保持原顺序
+            return joins;
+        }
+
+        long allJoins = (1L << n) - 1;
+        if (n > dpJoinLimit) {
+            PlanCache pc = orderJoinsGreedily(stats, filterSelectivities);
+            List<LogicalJoinNode> order = pc.getOrder(allJoins);
+            if (explain) {
+                printJoins(order, pc, allJoins, stats, filterSelectivities);
+            }
+            return order;
+        }
+
+        long[] neighbours = joinNeighbours();
+        long[] joinSets = connectedJoinSets(neighbours);
+        PlanCache pc = new PlanCache(joinSets);
+        // 掩码升序，计算一个集合时它的子集都已算好
+        for (long joinSet : joinSets) {
+            CostCard best = null;
+            long bestLeft = 0, bestRight = 0;
+            for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+                int joinToRemove = Long.numberOfTrailingZeros(rest);
+                LogicalJoinNode j = joins.get(joinToRemove);
+                long others = joinSet & ~(1L << joinToRemove);
+                long left = component(others, j.t1Alias, neighbours);
+                long right = j.t2Alias == null ? 0 : component(others, j.t2Alias, neighbours);
+                double bestCostSoFar = best == null ? Double.MAX_VALUE : best.cost;
+                CostCard cc;
+                if (left == others || right == others) {
+                    // 一侧是基表
+                    left = others;
+                    right = 0;
+                    cc = computeCostAndCardOfSubplan(stats, filterSelectivities, joinToRemove,
+                            joinSet, bestCostSoFar, pc);
+                } else if ((left | right) == others && pc.hasPlan(left) && pc.hasPlan(right)) {
+                    cc = computeCostAndCardOfBushySubplan(stats, joinToRemove, left, right,
+                            bestCostSoFar, pc);
+                } else {
+                    continue;
+                }
+                if (cc != null) {
+                    best = cc;
+                    bestLeft = left;
+                    bestRight = right;
+                }
+            }
+            if (best != null) {
+                pc.addPlan(joinSet, best.cost, best.card, bestLeft, bestRight, best.join);
+            }
+        }
+
+        List<LogicalJoinNode> order = pc.getOrder(allJoins);
+        if (order == null) {
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        }
+        if (explain) {
+            printJoins(order, pc, allJoins, stats, filterSelectivities);
+        }
+        return order;
     }
 
     // ===================== Private Methods =================================
 
+    /**
+     * Order the joins in time linear in the number of orders tried, for
+     * queries too large for dynamic programming. A greedy pass in the manner
+     * of GOO starts from the join with the smallest result and repeatedly
+     * adds the join, connected to those already chosen, that gives the
+     * smallest intermediate result. Iterative improvement then moves a
+     * random join to a random position and keeps the new order if it is
+     * cheaper, until {@link #getPlanningBudget()} milliseconds have passed
+     * or n * n moves in a row have failed.
+     *
+     * @return a PlanCache holding the best order found, under the bitmask
+     *         of all joins
+     * @throws ParsingException if the joins cannot be ordered without a
+     *         cross product
+     */
+    private PlanCache orderJoinsGreedily(Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws ParsingException {
+        long deadline = System.currentTimeMillis() + planningBudget;
+        int n = joins.size();
+        long allJoins = (1L << n) - 1;
+
+        int[] order = new int[n];
+        long joinSet = 0;
+        PlanCache pc = new PlanCache(new long[]{joinSet});
+        for (int k = 0; k < n; k++) {
+            CostCard best = null;
+            int bestJoin = -1;
+            for (int i = 0; i < n; i++) {
+                if ((joinSet & (1L << i)) != 0) {
+                    continue;
+                }
+                CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, i,
+                        joinSet | (1L << i), Double.MAX_VALUE, pc);
+                if (cc != null && (best == null || cc.card < best.card
+                        || (cc.card == best.card && cc.cost < best.cost))) {
+                    best = cc;
+                    bestJoin = i;
+                }
+            }
+            if (best == null) {
+                throw new ParsingException("Query does not include join expressions joining all nodes!");
+            }
+            order[k] = bestJoin;
+            long split = joinSet;
+            joinSet |= 1L << bestJoin;
+            // 下一步只需要当前集合的计划
+            pc = new PlanCache(new long[]{joinSet});
+            pc.addPlan(joinSet, best.cost, best.card, split, 0, best.join);
+        }
+
+        PlanCache bestPlan = costOrder(stats, filterSelectivities, order);
+        Random random = new Random(n);
+        int failures = 0;
+        while (n > 1 && failures < n * n && System.currentTimeMillis() < deadline) {
+            int[] candidate = moveJoin(order, random.nextInt(n), random.nextInt(n));
+            PlanCache candidatePlan = costOrder(stats, filterSelectivities, candidate);
+            if (candidatePlan != null && candidatePlan.getCost(allJoins) < bestPlan.getCost(allJoins)) {
+                order = candidate;
+                bestPlan = candidatePlan;
+                failures = 0;
+            } else {
+                failures++;
+            }
+        }
+        return bestPlan;
+    }
+
+    /**
+     * @return a copy of order with the join at position from moved to
+     *         position to
+     */
+    private static int[] moveJoin(int[] order, int from, int to) {
+        int[] moved = order.clone();
+        int join = moved[from];
+        if (from < to) {
+            System.arraycopy(moved, from + 1, moved, from, to - from);
+        } else {
+            System.arraycopy(moved, to, moved, to + 1, from - to);
+        }
+        moved[to] = join;
+        return moved;
+    }
+
+    /**
+     * Cost a left-deep plan that runs the joins in the given order
+     *
+     * @param order indexes in {@link #joins}, in the order they are run
+     * @return a PlanCache with the plan for every prefix of order, or null
+     *         if the order needs a cross product
+     */
+    private PlanCache costOrder(Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities, int[] order) throws ParsingException {
+        // 每个前缀都是前一个的超集，数值递增
+        long[] prefixes = new long[order.length];
+        long joinSet = 0;
+        for (int k = 0; k < order.length; k++) {
+            joinSet |= 1L << order[k];
+            prefixes[k] = joinSet;
+        }
+        PlanCache pc = new PlanCache(prefixes.clone());
+        long split = 0;
+        for (int k = 0; k < order.length; k++) {
+            CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, order[k], prefixes[k],
+                    Double.MAX_VALUE, pc);
+            if (cc == null) {
+                return null;
+            }
+            pc.addPlan(prefixes[k], cc.cost, cc.card, split, 0, cc.join);
+            split = prefixes[k];
+        }
+        return pc;
+    }
+
     /**
      * This is a helper method that computes the cost and cardinality of joining
      * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * the best plan for the rest of joinSet has already been computed and
+     * stored in PlanCache pc.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
@@ -257,54 +810,50 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      * @param joinToRemove
-     *            the join to remove from joinSet
+     *            the index in {@link #joins} of the join to remove from joinSet
      * @param joinSet
-     *            the set of joins being considered
+     *            the bitmask of the joins being considered
      * @param bestCostSoFar
      *            the best way to join joinSet so far (minimum of previous
      *            invocations of computeCostAndCardOfSubplan for this joinSet,
      *            from returned CostCard)
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     *            the PlanCache for this join; should have a plan for joinSet
+     *            without joinToRemove
+     * @return A {@link CostCard} objects desribing the cost, cardinality and
+     *         last join of the subplan, or null if it is not cheaper than
+     *         bestCostSoFar or needs a cross product
      * @throws ParsingException
      *             when stats, filterSelectivities, or pc object is missing
      *             tables involved in join
      */
-    @SuppressWarnings("unchecked")
     private CostCard computeCostAndCardOfSubplan(
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
+            int joinToRemove, long joinSet,
             double bestCostSoFar, PlanCache pc) throws ParsingException {
 
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
+        LogicalJoinNode j = joins.get(joinToRemove);
 
         if (this.p.getTableId(j.t1Alias) == null)
             throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
+        if (j.t2Alias != null && this.p.getTableId(j.t2Alias) == null)
             throw new ParsingException("Unknown table " + j.t2Alias);
 
         String table1Name = Database.getCatalog().getTableName(
                 this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
+        String table2Name = j.t2Alias == null ? null : Database.getCatalog().getTableName(
                 this.p.getTableId(j.t2Alias));
         String table1Alias = j.t1Alias;
         String table2Alias = j.t2Alias;
 
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
+        long news = joinSet & ~(1L << joinToRemove);
 
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
 
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
+        if (news == 0) { // base case -- both are base relations
             t1cost = stats.get(table1Name).estimateScanCost();
             t1card = stats.get(table1Name).estimateTableCardinality(
                     filterSelectivities.get(j.t1Alias));
@@ -319,11 +868,10 @@ public class JoinOptimizer {
                     j.f2PureName);
         } else {
             // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
 
             // possible that we have not cached an answer, if subset
             // includes a cross product
-            if (prevBest == null) {
+            if (!pc.hasPlan(news)) {
                 return null;
             }
 
@@ -331,12 +879,12 @@ public class JoinOptimizer {
             int bestCard = pc.getCard(news);
 
             // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+            if (doesJoin(news, table1Alias)) { // j.t1 is in prevBest
                 t1cost = prevBestCost; // left side just has cost of whatever
                                        // left
                 // subtree is
                 t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
+                leftPkey = hasPkey(news);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -345,14 +893,14 @@ public class JoinOptimizer {
                                 filterSelectivities.get(j.t2Alias));
                 rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
                         j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
+            } else if (doesJoin(news, j.t2Alias)) { // j.t2 is in prevbest
                                                         // (both
                 // shouldn't be)
                 t2cost = prevBestCost; // left side just has cost of whatever
                                        // left
                 // subtree is
                 t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
+                rightPkey = hasPkey(news);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -365,11 +913,15 @@ public class JoinOptimizer {
             }
         }
 
+        // 只有基表才能作为索引连接的内层
+        boolean t1IsTable = news == 0 || !doesJoin(news, table1Alias);
+        boolean t2IsTable = news == 0 || doesJoin(news, table1Alias);
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t2IsTable, t1card, t2card, t1cost, t2cost);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t1IsTable, t2card, t1card, t2cost, t1cost);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -380,23 +932,85 @@ public class JoinOptimizer {
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            // 记下选中的连接算法，放入计划的是副本
+            JoinAlgorithm algorithm = j == j2
+                    ? chooseJoinAlgorithm(j, t1IsTable, t2card, t1card, t2cost, t1cost)
+                    : chooseJoinAlgorithm(j, t2IsTable, t1card, t2card, t1cost, t2cost);
+            j = j.withAlgorithm(algorithm);
+        }
 
         CostCard cc = new CostCard();
 
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
+        cc.join = j; // the plan for news is left -- j is the new last join
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Compute the cost and cardinality of joining the best plans for two
+     * disjoint sets of joins with the join at index joinIndex, which connects
+     * them. Neither input is a base table, so the join cannot use an index.
+     *
+     * @param left
+     *            the joins on the join's t1 side, with a plan in pc
+     * @param right
+     *            the joins on the join's t2 side, with a plan in pc
+     * @param bestCostSoFar
+     *            the cost of the best plan found so far for the union of the
+     *            two sets and the join
+     * @return A {@link CostCard} describing the cost, cardinality and last
+     *         join of the plan, or null if it is not cheaper than
+     *         bestCostSoFar
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
+    private CostCard computeCostAndCardOfBushySubplan(
+            Map<String, TableStats> stats, int joinIndex, long left, long right,
+            double bestCostSoFar, PlanCache pc) {
+        LogicalJoinNode j = joins.get(joinIndex);
+
+        double leftCost = pc.getCost(left);
+        double rightCost = pc.getCost(right);
+        int leftCard = pc.getCard(left);
+        int rightCard = pc.getCard(right);
+        boolean leftPkey = hasPkey(left);
+        boolean rightPkey = hasPkey(right);
+
+        double cost = estimateJoinCost(j, false, leftCard, rightCard, leftCost, rightCost);
+        LogicalJoinNode j2 = j.swapInnerOuter();
+        double swappedCost = estimateJoinCost(j2, false, rightCard, leftCard, rightCost, leftCost);
+        if (swappedCost < cost) {
+            j = j2;
+            cost = swappedCost;
+            double tmpCost = leftCost;
+            leftCost = rightCost;
+            rightCost = tmpCost;
+            int tmpCard = leftCard;
+            leftCard = rightCard;
+            rightCard = tmpCard;
+            boolean tmpPkey = leftPkey;
+            leftPkey = rightPkey;
+            rightPkey = tmpPkey;
+        }
+        if (cost >= bestCostSoFar)
+            return null;
+        j = j.withAlgorithm(chooseJoinAlgorithm(j, false, leftCard, rightCard, leftCost, rightCost));
+
+        CostCard cc = new CostCard();
+        cc.card = estimateJoinCardinality(j, leftCard, rightCard, leftPkey, rightPkey, stats);
+        cc.cost = cost;
+        cc.join = j;
+        return cc;
+    }
+
+    /**
+     * Return true if the specified table is joined by one of the joins in the
+     * bitmask joinSet, false otherwise
+     */
+    private boolean doesJoin(long joinSet, String table) {
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            LogicalJoinNode j = joins.get(Long.numberOfTrailingZeros(rest));
             if (j.t1Alias.equals(table)
                     || (j.t2Alias != null && j.t2Alias.equals(table)))
                 return true;
@@ -422,10 +1036,11 @@ public class JoinOptimizer {
 
     /**
      * Return true if a primary key field is joined by one of the joins in
-     * joinlist
+     * the bitmask joinSet
      */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
+    private boolean hasPkey(long joinSet) {
+        for (long rest = joinSet; rest != 0; rest &= rest - 1) {
+            LogicalJoinNode j = joins.get(Long.numberOfTrailingZeros(rest));
             if (isPkey(j.t1Alias, j.f1PureName)
                     || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
                 return true;
@@ -443,6 +1058,8 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
+     * @param joinSet
+     *            the bitmask of the joins in js, whose plan is in pc
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -450,7 +1067,7 @@ public class JoinOptimizer {
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(List<LogicalJoinNode> js, PlanCache pc, long joinSet,
             Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
@@ -470,13 +1087,15 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
+        // the joins of the subplan each join of js ends
+        List<Long> pathsSoFar = pc.getJoinSets(joinSet);
         boolean neither;
 
         System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+        for (int i = 0; i < js.size(); i++) {
+            LogicalJoinNode j = js.get(i);
+            long pathSoFar = pathsSoFar.get(i);
+            System.out.println("PATH SO FAR = " + js.subList(0, i + 1));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -490,6 +1109,7 @@ public class JoinOptimizer {
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
+            DefaultMutableTreeNode leftRoot = n;
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
                         + " (Cost = "
@@ -506,6 +1126,7 @@ public class JoinOptimizer {
             m.put(j.t1Alias, root);
 
             n = m.get(j.t2Alias);
+            DefaultMutableTreeNode rightRoot = n;
             if (n == null) { // never seen this table before
 
                 n = new DefaultMutableTreeNode(
@@ -528,10 +1149,12 @@ public class JoinOptimizer {
             m.put(j.t2Alias, root);
 
             // unless this table doesn't join with other tables,
-            // all tables are accessed from root
+            // the tables of the subplans joined here are accessed from root
             if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+                for (Map.Entry<String, DefaultMutableTreeNode> e : m.entrySet()) {
+                    if (e.getValue() == leftRoot || e.getValue() == rightRoot) {
+                        e.setValue(root);
+                    }
                 }
             }
 
@@ -4,20 +4,22 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.File;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * All of the aggregates of a query are computed by one Aggregate
+ * operator, grouped by the same fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -25,6 +27,9 @@ import java.io.File;
  * best implementations for joins.
  */
 public class LogicalPlan {
+    /** Value of {@link #getLimit} when the query has no LIMIT clause */
+    public static final int NO_LIMIT = -1;
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
@@ -32,12 +37,14 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    /** 各聚合的运算符和字段，下标一一对应；COUNT(*)的字段为null.* */
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = NO_LIMIT;
     private String query;
 //    private Query owner;
 
@@ -189,23 +196,56 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null for no grouping
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        addAggregate(op, afield, gfield == null ? Collections.emptyList() : Collections.singletonList(gfield));
+    }
+
+    /** Add an aggregate over the field, grouped by several fields, to the
+        query.  A query may have any number of aggregates, all computed in
+        one pass, but they must share the same GROUP BY fields.  Adding the
+        same aggregate twice has no effect.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or "*" for COUNT(*)
+        @param gfields the fields to group by, empty for no grouping
+     * @throws ParsingException if the GROUP BY fields differ from those of
+     *   an earlier aggregate
+    */
+    public void addAggregate(String op, String afield, List<String> gfields) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        if (afield.equals("*"))
+            afield="null.*";
+        List<String> gnames = new ArrayList<>();
+        for (String gfield : gfields) {
+            gnames.add(disambiguateName(gfield));
+        }
+        if (hasAgg && !groupByFields.equals(gnames)) {
+            throw new ParsingException("All aggregates must have the same GROUP BY fields");
+        }
+        groupByFields.clear();
+        groupByFields.addAll(gnames);
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         hasAgg = true;
     }
 
+    /** @return the position of an aggregate in the Aggregate operator's
+        list of aggregates, or -1 if the query does not compute it */
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -219,6 +259,27 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause.  With an ORDER BY the plan uses a {@link TopN} operator, which only
+        keeps limit tuples in memory.
+        @param limit the largest number of tuples to return, or {@link #NO_LIMIT}
+        @throws ParsingException if there is no ORDER BY or the limit is negative
+    */
+    public void setLimit(int limit) throws ParsingException {
+        if (limit == NO_LIMIT) {
+            this.limit = NO_LIMIT;
+            return;
+        }
+        if (limit < 0)
+            throw new ParsingException("Invalid LIMIT " + limit);
+        if (!hasOrderBy)
+            throw new ParsingException("LIMIT is only supported together with ORDER BY");
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -274,6 +335,89 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Convert the constant of a filter to a Field of the type of the filtered field.
+     *  @param td the TupleDesc of the filtered table's scan
+     *  @throws ParsingException if the table has no such field
+     */
+    private static Field filterConstant(LogicalFilterNode lf, TupleDesc td) throws ParsingException {
+        Type ftyp;
+        try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
+            ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        if (ftyp == Type.INT_TYPE)
+            return new IntField(new Integer(lf.c));
+        else
+            return new StringField(lf.c, Type.STRING_LEN);
+    }
+
+    /** Choose the access path of a table.  A filter comparing the key of a
+     *  B+ tree table with a constant can be answered by an index range scan,
+     *  which reads one page per level of the tree and then only the leaves
+     *  holding matches.  The most selective such filter is used if its
+     *  range scan is estimated to cost less than a scan of the whole table.
+     *  @param td the TupleDesc of the table's scan
+     *  @param stats the statistics of the table, or null if there are none
+     *  @return the filter to answer with a {@link BTreeScan}, or null to
+     *    scan the whole table
+     */
+    private LogicalFilterNode chooseIndexFilter(LogicalScanNode table, TupleDesc td, TableStats stats) throws ParsingException {
+        if (stats == null || stats.keyField() < 0)
+            return null;
+        LogicalFilterNode best = null;
+        double bestCost = stats.estimateScanCost();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE)
+                continue;
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue;  //reported when the filters are applied
+            }
+            if (field != stats.keyField())
+                continue;
+            double sel = stats.estimateSelectivity(field, lf.p, filterConstant(lf, td));
+            double cost = stats.estimateIndexScanCost(sel);
+            if (cost < bestCost) {
+                best = lf;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /** Find the filters of a plan that scans one heap file big enough to be
+     *  aggregated in parallel, so that each worker of a {@link ParallelAggregate}
+     *  can rebuild them over its own part of the table.
+     *  @param node the plan below the aggregate
+     *  @return the predicates of the filters, innermost first, or null if
+     *    the plan is not a sequential scan of a heap file of more than one
+     *    morsel under filters, or there is only one thread to run on
+     */
+    private static List<Predicate> parallelFilters(OpIterator node) {
+        if (ForkJoinPool.commonPool().getParallelism() < 2)
+            return null;
+        List<Predicate> preds = new ArrayList<>();
+        while (node instanceof Filter) {
+            preds.add(0, ((Filter) node).getPredicate());
+            node = ((Filter) node).getChildren()[0];
+        }
+        if (!(node instanceof SeqScan))
+            return null;
+        DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) node).getTableId());
+        if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() <= ParallelAggregate.MORSEL_PAGES)
+            return null;
+        return preds;
+    }
+
+    private static OpIterator leafOf(OpIterator node) {
+        while (node instanceof Filter)
+            node = ((Filter) node).getChildren()[0];
+        return node;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -292,6 +436,7 @@ public class LogicalPlan {
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        Set<LogicalFilterNode> indexFilters = new HashSet<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -307,6 +452,13 @@ public class LogicalPlan {
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            LogicalFilterNode indexFilter = chooseIndexFilter(table, ss.getTupleDesc(), baseTableStats.get(baseTableName));
+            if (indexFilter != null) {
+                Field f = filterConstant(indexFilter, ss.getTupleDesc());
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, new IndexPredicate(indexFilter.p, f)));
+                indexFilters.add(indexFilter);
+            }
+
         }
 
         for (LogicalFilterNode lf : filters) {
@@ -315,19 +467,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            Field f = filterConstant(lf, subplan.getTupleDesc());
 
             Predicate p = null;
             try {
@@ -335,7 +475,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            //the index scan already applies the filter it was chosen for
+            if (!indexFilters.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -345,10 +487,27 @@ public class LogicalPlan {
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
-
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        //a query seen before reuses its join order, unless a subquery makes the joins differ
+        boolean cacheable = !explain && query != null && !query.isEmpty();
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                cacheable = false;
+        }
+        QueryPlanCache planCache = Database.getQueryPlanCache();
+        String cacheKey = cacheable ? QueryPlanCache.normalize(query) : null;
+        List<LogicalJoinNode> cachedJoins = cacheable ? planCache.getJoinOrder(cacheKey, statsMap) : null;
+        if (cachedJoins != null && cachedJoins.size() == joins.size()) {
+            joins = cachedJoins;
+        } else {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
+
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            if (cacheable)
+                planCache.putJoinOrder(cacheKey, joins, statsMap);
+        }
 
+        //the joins come in post-order of a possibly bushy join tree: each side of a join is the
+        //subplan that holds its table, either a scan or the result of earlier joins
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -413,28 +572,34 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                //aggregate outputs follow the group by fields
+                int aggIndex = aggregateIndex(si.aggOp, si.fname);
+                if (aggIndex < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + aggIndex);
+                if (!si.fname.equals("null.*")) {
+                    TupleDesc td = node.getTupleDesc();
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int groupIndex = groupByFields.indexOf(si.fname);
+                    if (groupIndex < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(groupIndex);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,17 +626,54 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    aops[i] = getAggOp(aggOps.get(i));
+                    if (aggFields.get(i).equals("null.*")) {
+                        if (aops[i] != Aggregator.Op.COUNT)
+                            throw new ParsingException("Only COUNT can be applied to *");
+                        afields[i] = HashAggregator.COUNT_ROWS;
+                    } else {
+                        afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    }
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                }
+                //input already ordered on a group field needs no hash table across runs
+                int ordered = Aggregator.NO_GROUPING;
+                for (int gfield : gfields) {
+                    if (StreamAggregate.isGroupedOn(node, gfield)) {
+                        ordered = gfield;
+                        break;
+                    }
+                }
+                //a big heap file is scanned, filtered and aggregated by several threads
+                List<Predicate> preds = parallelFilters(node);
+                if (ordered != Aggregator.NO_GROUPING) {
+                    aggNode = new StreamAggregate(node, afields, gfields, aops, ordered);
+                } else if (preds != null) {
+                    SeqScan scan = (SeqScan) leafOf(node);
+                    aggNode = new ParallelAggregate(t, scan.getTableId(), scan.getAlias(), morsel -> {
+                        OpIterator it = morsel;
+                        for (Predicate p : preds)
+                            it = new Filter(p, it);
+                        return it;
+                    }, afields, gfields, aops);
+                } else {
+                    aggNode = new Aggregate(node, afields, gfields, aops);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && limit != NO_LIMIT) {
+            node = new TopN(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, limit, node);
+        } else if (hasOrderBy) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
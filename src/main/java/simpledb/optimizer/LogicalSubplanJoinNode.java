@@ -36,6 +36,12 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         return (j2.t1Alias.equals(t1Alias)  && j2.f1PureName.equals(f1PureName) && ((LogicalSubplanJoinNode)o).subPlan.equals(subPlan));
     }
     
+    @Override public LogicalSubplanJoinNode withAlgorithm(JoinOptimizer.JoinAlgorithm algorithm) {
+        LogicalSubplanJoinNode j = new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
+        j.algorithm = algorithm;
+        return j;
+    }
+
     public LogicalSubplanJoinNode swapInnerOuter() {
         return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
     }
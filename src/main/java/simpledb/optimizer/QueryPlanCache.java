@@ -0,0 +1,183 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * QueryPlanCache keeps the join orders chosen by the {@link JoinOptimizer}
+ * across queries, so that a query that is run again, perhaps with different
+ * constants, is not ordered again.
+ * <p>
+ * Orders are keyed on the text of the query with its constants replaced by
+ * placeholders (see {@link #normalize}). Only the join order is kept: the
+ * rest of the physical plan is bound to a transaction and to the constants
+ * of the query, and is cheap to build compared to ordering the joins.
+ * <p>
+ * An order is dropped when the catalog has changed since it was chosen, or
+ * when the cardinality of one of its tables has moved by more than
+ * {@link #STATS_CHANGE} of what it was. The cache holds at most a fixed
+ * number of orders and evicts the least recently used one when full.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /** Default number of join orders kept */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Relative change of a table's cardinality that makes an order stale */
+    public static final double STATS_CHANGE = 0.2;
+
+    /** 表没有统计信息时记录的基数 */
+    private static final int NO_STATS = -1;
+
+    private static final Pattern STRINGS = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern NUMBERS = Pattern.compile("(?<![\\w.])-?\\d+(\\.\\d+)?(?![\\w.])");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private static class Entry {
+        final List<LogicalJoinNode> joins;
+        final long catalogVersion;
+        /** 选出该顺序时各表的基数 */
+        final Map<String, Integer> cardinalities;
+
+        Entry(List<LogicalJoinNode> joins, long catalogVersion, Map<String, Integer> cardinalities) {
+            this.joins = joins;
+            this.catalogVersion = catalogVersion;
+            this.cardinalities = cardinalities;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+
+    public QueryPlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of join orders kept before the least
+     *            recently used one is evicted
+     */
+    public QueryPlanCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        // 按访问顺序排列，最久未用的在最前
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > QueryPlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Normalize the text of a query, so that queries that differ only in
+     * their constants or white space have the same key.
+     *
+     * @param query the text of a query
+     * @return the text with string and numeric literals replaced by
+     *         {@code ?} and white space collapsed
+     */
+    public static String normalize(String query) {
+        String s = STRINGS.matcher(query).replaceAll("?");
+        s = NUMBERS.matcher(s).replaceAll("?");
+        return SPACES.matcher(s).replaceAll(" ").trim();
+    }
+
+    /**
+     * Look up the join order of a query.
+     *
+     * @param key the normalized text of the query
+     * @param stats the statistics of the tables of the query, by table name
+     * @return a copy of the cached join order, or null if there is none or
+     *         it is no longer valid
+     */
+    public synchronized List<LogicalJoinNode> getJoinOrder(String key, Map<String, TableStats> stats) {
+        Entry entry = entries.get(key);
+        if (Objects.nonNull(entry) && !isValid(entry, stats)) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (Objects.isNull(entry)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ArrayList<>(entry.joins);
+    }
+
+    /**
+     * Cache the join order of a query.
+     *
+     * @param key the normalized text of the query
+     * @param joins the join order chosen for the query
+     * @param stats the statistics the order was chosen with, by table name
+     */
+    public synchronized void putJoinOrder(String key, List<LogicalJoinNode> joins, Map<String, TableStats> stats) {
+        entries.put(key, new Entry(new ArrayList<>(joins), Database.getCatalog().getVersion(),
+                cardinalities(stats)));
+    }
+
+    private static Map<String, Integer> cardinalities(Map<String, TableStats> stats) {
+        Map<String, Integer> cards = new HashMap<>();
+        for (Map.Entry<String, TableStats> e : stats.entrySet()) {
+            TableStats s = e.getValue();
+            cards.put(e.getKey(), Objects.isNull(s) ? NO_STATS : s.estimateTableCardinality(1.0));
+        }
+        return cards;
+    }
+
+    private static boolean isValid(Entry entry, Map<String, TableStats> stats) {
+        if (entry.catalogVersion != Database.getCatalog().getVersion()) {
+            return false;
+        }
+        Map<String, Integer> cards = cardinalities(stats);
+        if (!cards.keySet().equals(entry.cardinalities.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, Integer> e : cards.entrySet()) {
+            int before = entry.cardinalities.get(e.getKey());
+            int now = e.getValue();
+            if ((before == NO_STATS) != (now == NO_STATS)) {
+                return false;
+            }
+            // 基数变化超过阈值时重新排序
+            if (Math.abs(now - before) > STATS_CHANGE * Math.max(before, 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Remove every cached join order */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /** @return the number of cached join orders */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return the number of lookups that found a valid join order */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
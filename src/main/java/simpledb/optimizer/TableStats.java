@@ -1,12 +1,17 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -68,6 +73,20 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int totalTuples = 0;
+
+    /**
+     * 表为B+树文件时的键字段，否则为-1
+     */
+    private final int keyField;
+
+    /**
+     * 各字段的直方图：INT字段为IntHistogram，其他为StringHistogram
+     */
+    private final Object[] histograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -87,6 +106,62 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = file.getTupleDesc();
+        this.ioCostPerPage = ioCostPerPage;
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            numPages = ((BTreeFile) file).numPages();
+        } else {
+            numPages = 0;
+        }
+        keyField = file instanceof BTreeFile ? ((BTreeFile) file).keyField() : -1;
+
+        int[] mins = new int[td.numFields()];
+        int[] maxs = new int[td.numFields()];
+        Arrays.fill(mins, Integer.MAX_VALUE);
+        Arrays.fill(maxs, Integer.MIN_VALUE);
+        histograms = new Object[td.numFields()];
+
+        TransactionId tid = new TransactionId();
+        try {
+            // 第一遍求各整数字段的取值范围，第二遍建直方图
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                totalTuples++;
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = t.getInt(i);
+                        mins[i] = Math.min(mins[i], v);
+                        maxs[i] = Math.max(maxs[i], v);
+                    }
+                }
+            }
+            for (int i = 0; i < td.numFields(); i++) {
+                histograms[i] = td.getFieldType(i) == Type.INT_TYPE
+                        ? new IntHistogram(NUM_HIST_BINS, Math.min(mins[i], maxs[i]), Math.max(mins[i], maxs[i]))
+                        : new StringHistogram(NUM_HIST_BINS);
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (histograms[i] instanceof IntHistogram) {
+                        ((IntHistogram) histograms[i]).addValue(t.getInt(i));
+                    } else {
+                        ((StringHistogram) histograms[i]).addValue(t.getField(i).toString());
+                    }
+                }
+            }
+            it.close();
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("could not compute statistics for table " + tableid, e);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
     }
 
     /**
@@ -103,7 +178,33 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of a B+ tree table that
+     * satisfy a predicate on its key field: one page for each level of the
+     * tree to find the first matching leaf, then the fraction of the pages
+     * that hold matches. Pages are costed like those of a sequential scan.
+     *
+     * @param selectivity
+     *            The selectivity of the predicate on the key field
+     * @return The estimated cost, or the cost of a sequential scan if the
+     *         table is not a B+ tree
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        if (keyField < 0) {
+            return estimateScanCost();
+        }
+        double levels = 1 + Math.ceil(Math.log(Math.max(numPages, 1)) / Math.log(JoinOptimizer.INDEX_FANOUT));
+        return (levels + Math.ceil(selectivity * numPages)) * ioCostPerPage;
+    }
+
+    /**
+     * @return the key field if the table is a B+ tree, or -1
+     */
+    public int keyField() {
+        return keyField;
     }
 
     /**
@@ -117,7 +218,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(totalTuples * selectivityFactor);
     }
 
     /**
@@ -132,7 +233,13 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        if (op != Predicate.Op.EQUALS) {
+            return 1.0;
+        }
+        if (histograms[field] instanceof IntHistogram) {
+            return ((IntHistogram) histograms[field]).avgSelectivity();
+        }
+        return ((StringHistogram) histograms[field]).avgSelectivity();
     }
 
     /**
@@ -150,7 +257,10 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram) {
+            return ((IntHistogram) histograms[field]).estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        return ((StringHistogram) histograms[field]).estimateSelectivity(op, constant.toString());
     }
 
     /**
@@ -158,7 +268,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return totalTuples;
     }
 
 }
@@ -4,16 +4,21 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,7 +27,12 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are page-level shared/exclusive locks
+ * kept by a {@link LockManager} and released when the transaction completes.
+ * <p>
+ * The page table is split into shards hashed by PageId. Each shard has its
+ * own latch and eviction state, so readers of different shards never wait for
+ * each other; only the total number of cached pages is shared.
  *
  * @Threadsafe, all fields are final
  */
@@ -42,15 +52,66 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
+    /**
+     * Minimum number of pages per shard; smaller pools get fewer shards so
+     * that each shard's eviction policy still sees a useful history.
+     */
+    static final int MIN_PAGES_PER_SHARD = 8;
+
+    /**
+     * Upper bound on the number of shards picked by {@link #BufferPool(int)}.
+     */
+    public static final int DEFAULT_MAX_SHARDS = 16;
+
     /**
      * 缓冲池页数量
      */
     private final int numPages;
 
     /**
-     * 页列表
+     * 缓冲池中已占用（或已预留）的页数，所有分片共享
+     */
+    private final AtomicInteger usedPages = new AtomicInteger(0);
+
+    /**
+     * 页表分片，按PageId散列，每个分片有自己的锁和置换策略
+     */
+    private final Shard[] shards;
+
+    /**
+     * 页级锁管理器
+     */
+    private final LockManager lockManager = new LockManager();
+
+    /**
+     * 淘汰页时从哪个分片开始找，轮转以分散压力
      */
-    private final Map<PageId, Page> pageMap;
+    private final AtomicInteger evictionCursor = new AtomicInteger(0);
+
+    /**
+     * One partition of the page table. All access to a shard's pages and
+     * eviction state happens while holding the shard's monitor.
+     */
+    private static class Shard {
+        /**
+         * 页列表
+         */
+        final Map<PageId, Page> pages = new HashMap<>();
+
+        /**
+         * 正在从磁盘读入的页，读完时完成；同一页的其他请求等待它，而不是持锁等待
+         */
+        final Map<PageId, CompletableFuture<Void>> loading = new HashMap<>();
+
+        /**
+         * 页面置换策略
+         */
+        final EvictionPolicy evictionPolicy;
+
+        Shard(EvictionPolicy evictionPolicy) {
+            this.evictionPolicy = evictionPolicy;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -58,9 +119,46 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, defaultNumShards(numPages), LruKEvictionPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numShards independently latched shards.
+     *
+     * @param numPages       maximum number of pages in this buffer pool.
+     * @param numShards      number of shards of the page table
+     * @param policyFactory  creates the eviction policy of each shard
+     */
+    public BufferPool(int numPages, int numShards, Supplier<EvictionPolicy> policyFactory) {
         // some code goes here
+        if (numShards < 1) {
+            throw new IllegalArgumentException("numShards must be positive");
+        }
         this.numPages = numPages;
-        pageMap = new ConcurrentHashMap<>(numPages);
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard(policyFactory.get());
+        }
+    }
+
+    /**
+     * @return the largest power of two not above numPages / MIN_PAGES_PER_SHARD,
+     * between 1 and DEFAULT_MAX_SHARDS
+     */
+    static int defaultNumShards(int numPages) {
+        int n = 1;
+        while (n * 2 <= DEFAULT_MAX_SHARDS && n * 2 * MIN_PAGES_PER_SHARD <= numPages) {
+            n *= 2;
+        }
+        return n;
+    }
+
+    private Shard shardOf(PageId pid) {
+        // 扰动一下hashCode，避免低位分布不均
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[Math.floorMod(h, shards.length)];
     }
 
     public static int getPageSize() {
@@ -95,44 +193,95 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        if (Objects.isNull(pageMap.get(pid))) {
-            // 没有找到PageId=pid的页
-            if (pageMap.size() >= numPages) {
-                throw new DbException("buffer poll is full");
-            } else {
-                // 从磁盘中读取PageId=pid的页并加入缓冲池中
+        if (Objects.nonNull(tid)) {
+            // 先加锁，可能阻塞直到锁被授予
+            LockManager.LockType type = Objects.equals(perm, Permissions.READ_WRITE)
+                    ? LockManager.LockType.EXCLUSIVE : LockManager.LockType.SHARED;
+            lockManager.acquire(tid, pid, type);
+        }
+        Shard shard = shardOf(pid);
+        while (true) {
+            CompletableFuture<Void> pending;
+            boolean loader = false;
+            synchronized (shard) {
+                Page page = shard.pages.get(pid);
+                if (Objects.nonNull(page)) {
+                    shard.evictionPolicy.recordAccess(pid);
+                    return page;
+                }
+                pending = shard.loading.get(pid);
+                if (Objects.isNull(pending)) {
+                    // 没有找到PageId=pid的页，由本线程从磁盘中读取
+                    pending = new CompletableFuture<>();
+                    shard.loading.put(pid, pending);
+                    loader = true;
+                }
+            }
+            if (loader) {
+                return loadPage(shard, pid, pending);
+            }
+            // 等其他线程读完再查一次；读失败时本线程会自己再读
+            pending.join();
+        }
+    }
+
+    /**
+     * Read the specified page from its DbFile into its shard, evicting a page
+     * first if the pool is full. The disk read happens without holding the
+     * shard's monitor, so hits on other pages of the shard do not wait for
+     * it; other requests for the same page wait for pending instead.
+     *
+     * @param pending completed, and removed from the shard, once the page is
+     *                in the shard or the read has failed
+     */
+    private Page loadPage(Shard shard, PageId pid, CompletableFuture<Void> pending) throws DbException {
+        try {
+            reserveFrame(shard);
+            Page page;
+            try {
                 DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page page = dbFile.readPage(pid);
-                pageMap.put(pid, page);
-                if (Objects.equals(perm, Permissions.READ_WRITE)) {
-                    // 没有加独占锁，先上锁再返回
-                    page.markDirty(true, tid);
+                page = dbFile.readPage(pid);
+            } catch (RuntimeException e) {
+                usedPages.decrementAndGet();
+                throw e;
+            }
+            synchronized (shard) {
+                Page current = shard.pages.get(pid);
+                if (Objects.nonNull(current)) {
+                    // 读盘期间有事务放入了更新的版本，保留它
+                    usedPages.decrementAndGet();
+                    page = current;
+                } else {
+                    shard.pages.put(pid, page);
                 }
+                shard.evictionPolicy.recordAccess(pid);
                 return page;
             }
-        } else {
-            if (Objects.equals(perm, Permissions.READ_ONLY)) {
-                // 读锁，共享锁
-                if (Objects.isNull(pageMap.get(pid).isDirty())) {
-                    // 当前页没有加独占锁
-                    return pageMap.get(pid);
-                } else {
-                    throw new TransactionAbortedException();
+        } finally {
+            synchronized (shard) {
+                shard.loading.remove(pid);
+            }
+            pending.complete(null);
+        }
+    }
+
+    /**
+     * Reserve room for one more page, evicting pages until there is some.
+     * Must not be called while holding a shard's monitor.
+     *
+     * @param preferred the shard to evict from first
+     */
+    private void reserveFrame(Shard preferred) throws DbException {
+        while (true) {
+            int used = usedPages.get();
+            if (used < numPages) {
+                if (usedPages.compareAndSet(used, used + 1)) {
+                    return;
                 }
             } else {
-                // 写锁，独占锁
-                Page page = pageMap.get(pid);
-                if (Objects.isNull(page.isDirty())) {
-                    // 没有加独占锁，先上锁再返回
-                    page.markDirty(true, tid);
-                    return page;
-                } else {
-                    // pageId相同但已被上锁，抛异常
-                    throw new TransactionAbortedException();
-                }
+                evictPage(preferred);
             }
         }
-        //return null;
     }
 
     /**
@@ -147,6 +296,7 @@ public class BufferPool {
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -157,6 +307,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /**
@@ -165,7 +316,14 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * @return the number of deadlocks the lock manager has broken so far
+     */
+    public long getDeadlocksDetected() {
+        return lockManager.getDeadlocksDetected();
     }
 
     /**
@@ -178,6 +336,42 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            completePages(tid, commit);
+        } catch (IOException e) {
+            throw new RuntimeException("could not flush pages of transaction " + tid.getId(), e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * On commit, write the pages dirtied by the transaction to disk (FORCE)
+     * and make them the new before images. On abort, drop them from the pool
+     * so that the next reader gets the version on disk.
+     */
+    private void completePages(TransactionId tid, boolean commit) throws IOException {
+        if (commit) {
+            List<Page> dirtied = dirtyPages(tid);
+            writeDirtyPages(dirtied);
+            for (Page page : dirtied) {
+                page.setBeforeImage();
+            }
+            return;
+        }
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                List<PageId> dirtied = new ArrayList<>();
+                for (Page page : shard.pages.values()) {
+                    if (Objects.equals(tid, page.isDirty())) {
+                        dirtied.add(page.getId());
+                    }
+                }
+                for (PageId pid : dirtied) {
+                    discardPage(shard, pid);
+                }
+            }
+        }
     }
 
     /**
@@ -199,6 +393,8 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, dbFile.insertTuple(tid, t));
     }
 
     /**
@@ -218,6 +414,36 @@ public class BufferPool {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, dbFile.deleteTuple(tid, t));
+    }
+
+    /**
+     * Mark the pages as dirtied by tid and make them the cached version.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            Shard shard = shardOf(page.getId());
+            boolean cached;
+            synchronized (shard) {
+                cached = shard.pages.containsKey(page.getId());
+                if (cached) {
+                    shard.pages.put(page.getId(), page);
+                }
+            }
+            if (!cached) {
+                reserveFrame(shard);
+                synchronized (shard) {
+                    if (Objects.nonNull(shard.pages.put(page.getId(), page))) {
+                        // 其他线程已经读入了旧版本
+                        usedPages.decrementAndGet();
+                    }
+                    shard.evictionPolicy.recordAccess(page.getId());
+                }
+            }
+        }
     }
 
     /**
@@ -225,10 +451,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        writeDirtyPages(dirtyPages(null));
     }
 
     /**
@@ -240,9 +466,20 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        Shard shard = shardOf(pid);
+        synchronized (shard) {
+            discardPage(shard, pid);
+        }
+    }
+
+    private void discardPage(Shard shard, PageId pid) {
+        if (Objects.nonNull(shard.pages.remove(pid))) {
+            usedPages.decrementAndGet();
+        }
+        shard.evictionPolicy.remove(pid);
     }
 
     /**
@@ -250,26 +487,121 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Shard shard = shardOf(pid);
+        Page page;
+        synchronized (shard) {
+            page = shard.pages.get(pid);
+        }
+        if (Objects.nonNull(page) && Objects.nonNull(page.isDirty())) {
+            writeDirtyPages(Collections.singletonList(page));
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        writeDirtyPages(dirtyPages(tid));
+    }
+
+    /**
+     * @param tid the transaction whose pages to return, or null for every
+     *            dirty page
+     * @return the dirty pages in the pool, dirtied by tid if it is non-null
+     */
+    private List<Page> dirtyPages(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Page page : shard.pages.values()) {
+                    TransactionId dirtier = page.isDirty();
+                    if (Objects.nonNull(dirtier) && (Objects.isNull(tid) || tid.equals(dirtier))) {
+                        dirty.add(page);
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Write dirty pages to disk in one pass. Every page's update is logged
+     * first and the log is forced once for the whole batch (write-ahead
+     * logging); the pages are then handed to their files in one batch per
+     * file, so each file can sort and coalesce the writes.
+     * <p>
+     * No shard monitor is held while writing. The pages written are dirty, so
+     * they are locked by the transaction that dirtied them and cannot change
+     * underneath; only the LogFile's monitor is taken, one record at a time.
+     */
+    private void writeDirtyPages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        Map<Integer, List<Page>> byTable = new HashMap<>();
+        for (Page page : pages) {
+            // 先写日志，再写页
+            Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
+            byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        Database.getLogFile().force();
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+        }
+        for (Page page : pages) {
+            page.markDirty(false, null);
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The BufferPool runs in NO STEAL mode, so dirty pages are never chosen.
+     * Shards are tried one at a time, starting with the preferred one; within
+     * a shard the victim is the first clean page in the order of the shard's
+     * eviction policy.
+     *
+     * @param preferred the shard to evict from first
+     * @throws DbException if every page in the pool is dirty
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage(Shard preferred) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (evictPageFrom(preferred)) {
+            return;
+        }
+        int start = evictionCursor.getAndIncrement();
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[Math.floorMod(start + i, shards.length)];
+            if (shard != preferred && evictPageFrom(shard)) {
+                return;
+            }
+        }
+        if (usedPages.get() >= numPages) {
+            throw new DbException("buffer pool is full of dirty pages");
+        }
+        // 其他线程刚刚释放了页，调用方会重试
+    }
+
+    private boolean evictPageFrom(Shard shard) {
+        synchronized (shard) {
+            PageId victim = shard.evictionPolicy.chooseVictim(pid -> {
+                Page page = shard.pages.get(pid);
+                return Objects.nonNull(page) && Objects.isNull(page.isDirty());
+            });
+            if (Objects.isNull(victim)) {
+                return false;
+            }
+            // 只淘汰干净页，无需写回磁盘
+            discardPage(shard, victim);
+            return true;
+        }
     }
 
 }
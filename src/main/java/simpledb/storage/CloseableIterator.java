@@ -0,0 +1,21 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+
+/**
+ * An iterator that holds resources, such as an open file, until it reaches
+ * its end. Closing it releases them at once, so a reader that stops early
+ * does not keep them until the iterator is garbage collected.
+ * 持有打开文件等资源的迭代器，提前结束时需调用close释放
+ *
+ * @param <T> the element type
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    /**
+     * Release the resources of the iterator. After this the iterator has no
+     * more elements. Closing it again has no effect.
+     */
+    @Override
+    void close();
+}
@@ -34,6 +34,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages of this file to disk. Implementations may reorder
+     * the writes and merge writes of adjacent pages.
+     * 批量写页，实现类可以按偏移排序并合并相邻页的写
+     *
+     * @param pages the pages to write, all belonging to this file
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -96,4 +110,16 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Release the operating system resources held for this file, such as
+     * open channels and memory mappings. The catalog calls this when it drops
+     * or replaces the file. A file that is used again after being closed
+     * reopens what it needs.
+     * 释放文件占用的通道和内存映射，被表目录移除或替换时调用
+     *
+     * @throws IOException if the resources cannot be released
+     */
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which page the BufferPool gives up when it runs out
+ * of frames.
+ * 缓冲池的页面置换策略
+ * <p>
+ * A policy only tracks PageIds. Whether a page may actually leave the pool
+ * (e.g. a dirty page under NO STEAL) is up to the BufferPool, which passes that
+ * decision in through {@link #chooseVictim}.
+ * <p>
+ * Implementations are not thread safe; the BufferPool calls them while holding
+ * its own latch.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Record a reference to the specified page, either because it was just
+     * read into the pool or because it was found there.
+     *
+     * @param pid the page that was referenced
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Stop tracking the specified page, because it was evicted or discarded.
+     * Does nothing if the page is not tracked.
+     *
+     * @param pid the page that left the pool
+     */
+    void remove(PageId pid);
+
+    /**
+     * Pick the page that should be evicted next. The returned page is still
+     * tracked; the caller must {@link #remove} it once it has been evicted.
+     *
+     * @param canEvict tells whether a tracked page may be evicted right now
+     * @return the page to evict, or null if no tracked page may be evicted
+     */
+    PageId chooseVictim(Predicate<PageId> canEvict);
+}
@@ -9,6 +9,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -29,6 +30,31 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * 磁盘上的文件
+     */
+    private final File f;
+
+    /**
+     * 表的元组描述
+     */
+    private final TupleDesc td;
+
+    /**
+     * 表id
+     */
+    private final int tableId;
+
+    /**
+     * 读写页用的通道，整个文件生命周期内复用
+     */
+    private final PageFileChannel channel;
+
+    /**
+     * 已知的页数，文件只增不减，读页时不必每次查询文件长度
+     */
+    private final AtomicInteger pageCount = new AtomicInteger();
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -37,6 +63,10 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this.f = f;
+        this.td = td;
+        this.tableId = f.getAbsoluteFile().hashCode();
+        this.channel = new PageFileChannel(f);
     }
 
     /**
@@ -46,7 +76,7 @@ public class HeapFile implements DbFile {
      */
     public File getFile() {
         // some code goes here
-        return null;
+        return f;
     }
 
     /**
@@ -60,7 +90,7 @@ public class HeapFile implements DbFile {
      */
     public int getId() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return tableId;
     }
 
     /**
@@ -70,19 +100,49 @@ public class HeapFile implements DbFile {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        return null;
+        if (pid.getTableId() != tableId || !pageExists(pid.getPageNumber())) {
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " does not exist in this file");
+        }
+        try {
+            byte[] data = channel.read((long) pid.getPageNumber() * BufferPool.getPageSize(),
+                    BufferPool.getPageSize());
+            return new HeapPage(new HeapPageId(tableId, pid.getPageNumber()), data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        channel.write((long) page.getId().getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+        grownTo(page.getId().getPageNumber() + 1);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        SortedMap<Long, byte[]> writes = new TreeMap<>();
+        int end = 0;
+        for (Page page : pages) {
+            writes.put((long) page.getId().getPageNumber() * BufferPool.getPageSize(), page.getPageData());
+            end = Math.max(end, page.getId().getPageNumber() + 1);
+        }
+        channel.write(writes);
+        grownTo(end);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public void close() throws IOException {
+        channel.close();
     }
 
     /**
@@ -90,29 +150,152 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return 0;
+        return grownTo((int) (f.length() / BufferPool.getPageSize()));
+    }
+
+    /**
+     * @return true if the page is in the file. Only a page past the known
+     * end of the file costs a look at the file's length.
+     */
+    private boolean pageExists(int pgNo) {
+        return pgNo >= 0 && (pgNo < pageCount.get() || pgNo < numPages());
+    }
+
+    /**
+     * Record that the file has at least the given number of pages.
+     *
+     * @return the number of pages now known
+     */
+    private int grownTo(int pages) {
+        return pageCount.accumulateAndGet(pages, Math::max);
     }
 
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        for (int pgNo = 0; pgNo < numPages(); pgNo++) {
+            HeapPageId pid = new HeapPageId(tableId, pgNo);
+            boolean locked = bufferPool.holdsLock(tid, pid);
+            // 先用共享锁查看是否有空位，满页不必持有排他锁
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.getNumEmptySlots() > 0) {
+                page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+                page.insertTuple(t);
+                return Collections.singletonList(page);
+            }
+            if (!locked) {
+                bufferPool.unsafeReleasePage(tid, pid);
+            }
+        }
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, appendEmptyPage(), Permissions.READ_WRITE);
+        page.insertTuple(t);
+        return Collections.singletonList(page);
+    }
+
+    /**
+     * Append an empty page to the end of the file.
+     *
+     * @return the id of the new page
+     */
+    private synchronized HeapPageId appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        channel.write((long) pgNo * BufferPool.getPageSize(), HeapPage.createEmptyPageData());
+        grownTo(pgNo + 1);
+        return new HeapPageId(tableId, pgNo);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (Objects.isNull(rid) || rid.getPageId().getTableId() != tableId
+                || !pageExists(rid.getPageId().getPageNumber())) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        return new ArrayList<>(Collections.singletonList(page));
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return null;
+        return new HeapFileIterator(tid, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages, such as one
+     * morsel of a parallel scan.
+     *
+     * @param startPage the first page to read
+     * @param endPage   one past the last page to read; pages past the end of
+     *                  the file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(tid, startPage, endPage);
+    }
+
+    /**
+     * 按页号顺序遍历[startPage, endPage)中的元组，页通过BufferPool获取
+     */
+    private class HeapFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final int startPage;
+        private final int endPage;
+
+        /**
+         * 下一个要读的页号
+         */
+        private int nextPgNo;
+
+        private Iterator<Tuple> tuples;
+
+        HeapFileIterator(TransactionId tid, int startPage, int endPage) {
+            this.tid = tid;
+            this.startPage = startPage;
+            this.endPage = endPage;
+        }
+
+        public void open() {
+            nextPgNo = startPage;
+            tuples = Collections.emptyIterator();
+        }
+
+        public void rewind() {
+            close();
+            open();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (Objects.isNull(tuples)) {
+                return null;
+            }
+            while (!tuples.hasNext()) {
+                if (nextPgNo >= endPage || !pageExists(nextPgNo)) {
+                    return null;
+                }
+                HeapPage page = (HeapPage) Database.getBufferPool()
+                        .getPage(tid, new HeapPageId(tableId, nextPgNo++), Permissions.READ_ONLY);
+                tuples = page.iterator();
+            }
+            return tuples.next();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            tuples = null;
+        }
     }
 
 }
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +95,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (!typeAr[i].isFixedLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -224,4 +233,81 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert a text file with variable length fields into pages in the
+   * slotted layout described in HeapPage. Rows are packed into a page in
+   * input order until the next one does not fit.
+   *
+   * @see HeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          ByteBuffer page = ByteBuffer.allocate(npagebytes);
+          int nslots = 0;
+          int heapStart = npagebytes;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty()) {
+                  continue;
+              }
+              String[] values = line.split(separator, -1);
+              Field[] fields = new Field[numFields];
+              int len = 0;
+              for (int i = 0; i < numFields; i++) {
+                  String s = i < values.length ? values[i].trim() : "";
+                  if (typeAr[i] == Type.INT_TYPE) {
+                      try {
+                          fields[i] = new IntField(Integer.parseInt(s));
+                      } catch (NumberFormatException e) {
+                          System.out.println ("BAD LINE : " + s);
+                          fields[i] = new IntField(0);
+                      }
+                  } else if (typeAr[i] == Type.VARCHAR_TYPE) {
+                      fields[i] = new VarcharField(s);
+                  } else {
+                      fields[i] = new StringField(s, Type.STRING_LEN);
+                  }
+                  len += typeAr[i].getLen(fields[i]);
+              }
+              if (HeapPage.SLOTTED_HEADER_SIZE + HeapPage.SLOT_SIZE + len > npagebytes) {
+                  throw new IOException("row does not fit in a page: " + line);
+              }
+              // 当前页放不下时写出并换新页
+              if (heapStart - len < HeapPage.SLOTTED_HEADER_SIZE + (nslots + 1) * HeapPage.SLOT_SIZE) {
+                  writeSlottedPage(os, page, nslots, heapStart);
+                  npages++;
+                  page = ByteBuffer.allocate(npagebytes);
+                  nslots = 0;
+                  heapStart = npagebytes;
+              }
+              heapStart -= len;
+              int offset = heapStart;
+              for (int i = 0; i < numFields; i++) {
+                  typeAr[i].serialize(fields[i], page, offset);
+                  offset += typeAr[i].getLen(fields[i]);
+              }
+              int entry = HeapPage.SLOTTED_HEADER_SIZE + nslots * HeapPage.SLOT_SIZE;
+              page.putInt(entry, heapStart);
+              page.putInt(entry + 4, len);
+              nslots++;
+          }
+          // 与定长格式一样，空文件也写出一个空页
+          if (nslots > 0 || npages == 0) {
+              writeSlottedPage(os, page, nslots, heapStart);
+          }
+      }
+  }
+
+  private static void writeSlottedPage(OutputStream os, ByteBuffer page, int nslots, int heapStart)
+      throws IOException {
+      page.putInt(0, nslots);
+      page.putInt(4, nslots == 0 ? 0 : heapStart);
+      os.write(page.array());
+  }
 }
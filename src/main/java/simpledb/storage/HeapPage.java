@@ -4,28 +4,97 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * The page keeps its raw bytes in a ByteBuffer and never builds Tuple
+ * objects up front. The header bits and the fields are read straight from
+ * the buffer, and the iterator hands out {@link LazyTuple}s that decode a
+ * field only when it is asked for. The buffer is copy-on-write: once it has
+ * been shared with tuples, a before image or the creator of the page, the
+ * next change to the page copies it first, so those views never change.
+ * 页数据保存在ByteBuffer中，元组按需解码；缓冲区写时复制
+ * <p>
+ * Pages of tables whose TupleDesc is not fixed length (it has
+ * {@link simpledb.common.Type#VARCHAR_TYPE} fields) use a slotted layout
+ * instead of the header bitmap: an int slot count and an int heap start,
+ * then a slot directory of (offset, length) int pairs growing forward, and
+ * the records packed against the end of the page growing backward. An
+ * offset of 0 marks an empty slot, and a heap start of 0 means the heap is
+ * empty, so an all-zero page is an empty page in both layouts. A slot keeps
+ * its number when other records are deleted or moved, so RecordIds stay
+ * valid.
+ * 变长元组使用槽页格式：页头、槽目录、从页尾向前增长的记录区
  *
  * @see HeapFile
  * @see BufferPool
  */
 public class HeapPage implements Page {
 
+    /**
+     * 槽页格式的页头：槽数与记录区起点，各一个int
+     */
+    static final int SLOTTED_HEADER_SIZE = 8;
+
+    /**
+     * 槽页格式每个槽的大小：记录偏移与长度，各一个int
+     */
+    static final int SLOT_SIZE = 8;
+
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    /**
+     * 是否使用槽页格式
+     */
+    private final boolean slotted;
+
+    /**
+     * header字节数
+     */
+    private final int headerSize;
+
+    /**
+     * 每个元组槽的字节数
+     */
+    private final int tupleSize;
+
+    /**
+     * 每个字段在槽内的偏移，槽页格式下为null
+     */
+    private final int[] fieldOffsets;
+
+    /**
+     * 页的原始数据
+     */
+    private ByteBuffer data;
+
+    /**
+     * data是否被其他对象引用，为true时修改前需要先复制
+     */
+    private boolean shared;
+
+    ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * 最后一次弄脏该页的事务，页不脏时为null
+     */
+    private volatile TransactionId dirtier;
+
+    /**
+     * 编号小于它的槽都已被占用，插入时从这里开始找空槽
+     */
+    private int freeHint = 0;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -39,31 +108,58 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The page wraps the array without copying it, and copies it before its
+     * first change, so the caller's array is never modified.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this(id, ByteBuffer.wrap(data));
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+    /**
+     * Create a HeapPage that reads its data from the buffer, from position 0.
+     * The buffer may be read-only; the page copies it before its first change.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+    /**
+     * Create a HeapPage for tuples of the given TupleDesc, without looking
+     * the table up in the catalog. Used for pages that do not belong to a
+     * table, such as those of a {@link SpillFile}.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.tupleSize = td.getSize();
+        this.slotted = !td.isFixedLength();
+        if (slotted) {
+            // 槽数保存在页中，随插入增长
+            this.numSlots = 0;
+            this.headerSize = SLOTTED_HEADER_SIZE;
+            this.fieldOffsets = null;
+            if (data.capacity() < BufferPool.getPageSize()) {
+                throw new IOException("page data is too short");
+            }
+        } else {
+            this.numSlots = getNumTuples();
+            this.headerSize = getHeaderSize();
+            if (data.capacity() < headerSize + numSlots * tupleSize) {
+                throw new IOException("page data is too short");
+            }
+            this.fieldOffsets = new int[td.numFields()];
+            int offset = 0;
+            for (int i = 0; i < fieldOffsets.length; i++) {
+                fieldOffsets[i] = offset;
+                offset += td.getFieldType(i).getLen();
+            }
         }
-        dis.close();
+        this.data = data;
+        this.shared = true;
 
         setBeforeImage();
     }
@@ -75,8 +171,8 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return 0;
-
+        // 每个元组占 tupleSize * 8 位，外加header中的1位
+        return (BufferPool.getPageSize() * 8) / (tupleSize * 8 + 1);
     }
 
     /**
@@ -85,10 +181,8 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-
         // some code goes here
-        return 0;
-
+        return (numSlots + 7) / 8;
     }
 
     /**
@@ -97,11 +191,11 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid, oldDataRef);
+            return new HeapPage(pid, td, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -112,7 +206,9 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            // 与前镜像共享缓冲区，下次修改时再复制
+            oldData = data;
+            shared = true;
         }
     }
 
@@ -121,41 +217,7 @@ public class HeapPage implements Page {
      */
     public HeapPageId getId() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
-    }
-
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
+        return pid;
     }
 
     /**
@@ -170,64 +232,11 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        ByteBuffer view = data.duplicate();
+        view.clear();
+        view.get(bytes, 0, Math.min(bytes.length, view.remaining()));
+        return bytes;
     }
 
     /**
@@ -255,6 +264,19 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (Objects.isNull(rid) || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        if (!isSlotUsed(rid.getTupleNumber())) {
+            throw new DbException("tuple slot is already empty");
+        }
+        if (slotted) {
+            deleteRecord(rid.getTupleNumber());
+        } else {
+            markSlotUsed(rid.getTupleNumber(), false);
+        }
+        freeHint = Math.min(freeHint, rid.getTupleNumber());
     }
 
     /**
@@ -268,6 +290,40 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int slot = append(t);
+        if (slot < 0) {
+            throw new DbException("page is full");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Write the tuple into the first free slot without checking its
+     * TupleDesc or changing its RecordId.
+     *
+     * @return the slot the tuple was written to, or -1 if it does not fit
+     */
+    int append(Tuple t) {
+        if (slotted) {
+            return insertRecord(t);
+        }
+        for (int i = freeHint; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                copyOnWrite();
+                int slotOffset = headerSize + i * tupleSize;
+                for (int j = 0; j < fieldOffsets.length; j++) {
+                    td.getFieldType(j).serialize(t.getField(j), data, slotOffset + fieldOffsets[j]);
+                }
+                markSlotUsed(i, true);
+                freeHint = i + 1;
+                return i;
+            }
+        }
+        freeHint = numSlots;
+        return -1;
     }
 
     /**
@@ -277,6 +333,7 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
         // not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -285,15 +342,27 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
         // Not necessary for lab1
-        return null;
+        return dirtier;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. For a slotted page this
+     * is the number of tuples of the largest possible size that still fit,
+     * so an insert never fails while it is positive; smaller tuples may fit
+     * when it is 0.
      */
     public int getNumEmptySlots() {
         // some code goes here
-        return 0;
+        if (slotted) {
+            return freeBytes() / (tupleSize + SLOT_SIZE);
+        }
+        int count = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -301,7 +370,143 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        return false;
+        if (i < 0 || i >= slotCount(data)) {
+            return false;
+        }
+        return isUsed(data, i);
+    }
+
+    private int slotCount(ByteBuffer buf) {
+        return slotted ? buf.getInt(0) : numSlots;
+    }
+
+    private boolean isUsed(ByteBuffer buf, int i) {
+        if (slotted) {
+            return buf.getInt(SLOTTED_HEADER_SIZE + i * SLOT_SIZE) != 0;
+        }
+        // header中每个字节的低位对应编号小的槽
+        return (buf.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return where the record area of a slotted page starts
+     */
+    private int heapStart() {
+        int start = data.getInt(4);
+        return start == 0 ? BufferPool.getPageSize() : start;
+    }
+
+    /**
+     * @return the bytes of a slotted page not used by the header, the slot
+     * directory or a record, including holes left by deleted records
+     */
+    private int freeBytes() {
+        int n = slotCount(data);
+        int free = BufferPool.getPageSize() - SLOTTED_HEADER_SIZE - n * SLOT_SIZE;
+        for (int i = 0; i < n; i++) {
+            free -= data.getInt(SLOTTED_HEADER_SIZE + i * SLOT_SIZE + 4);
+        }
+        return free;
+    }
+
+    /**
+     * Insert a tuple into a slotted page, reusing the first empty slot and
+     * compacting the record area if the free space is fragmented.
+     *
+     * @return the slot the tuple was written to, or -1 if it does not fit
+     */
+    private int insertRecord(Tuple t) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            len += td.getFieldType(j).getLen(t.getField(j));
+        }
+        int n = slotCount(data);
+        int slot = Math.min(freeHint, n);
+        while (slot < n && isUsed(data, slot)) {
+            slot++;
+        }
+        int needed = slot == n ? len + SLOT_SIZE : len;
+        if (freeBytes() < needed) {
+            return -1;
+        }
+        copyOnWrite();
+        int directoryEnd = SLOTTED_HEADER_SIZE + n * SLOT_SIZE;
+        if (heapStart() - directoryEnd < needed) {
+            compact();
+        }
+        int offset = heapStart() - len;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            Field f = t.getField(j);
+            type.serialize(f, data, offset);
+            offset += type.getLen(f);
+        }
+        offset -= len;
+        if (slot == n) {
+            data.putInt(0, n + 1);
+        }
+        data.putInt(4, offset);
+        data.putInt(SLOTTED_HEADER_SIZE + slot * SLOT_SIZE, offset);
+        data.putInt(SLOTTED_HEADER_SIZE + slot * SLOT_SIZE + 4, len);
+        freeHint = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Empty a slot of a slotted page. Trailing empty slots are dropped from
+     * the directory; the record's bytes are reclaimed by the next compaction.
+     */
+    private void deleteRecord(int slot) {
+        copyOnWrite();
+        data.putInt(SLOTTED_HEADER_SIZE + slot * SLOT_SIZE, 0);
+        data.putInt(SLOTTED_HEADER_SIZE + slot * SLOT_SIZE + 4, 0);
+        int n = slotCount(data);
+        while (n > 0 && !isUsed(data, n - 1)) {
+            n--;
+        }
+        data.putInt(0, n);
+        if (n == 0) {
+            data.putInt(4, 0);
+        }
+    }
+
+    /**
+     * Move the records of a slotted page against the end of the page so the
+     * free space is contiguous. Slot numbers do not change.
+     */
+    private void compact() {
+        byte[] old = getPageData();
+        ByteBuffer view = data.duplicate();
+        int end = BufferPool.getPageSize();
+        for (int i = 0; i < slotCount(data); i++) {
+            int entry = SLOTTED_HEADER_SIZE + i * SLOT_SIZE;
+            int offset = data.getInt(entry);
+            if (offset == 0) {
+                continue;
+            }
+            int len = data.getInt(entry + 4);
+            end -= len;
+            view.clear();
+            view.position(end);
+            view.put(old, offset, len);
+            data.putInt(entry, end);
+        }
+        data.putInt(4, end == BufferPool.getPageSize() ? 0 : end);
+    }
+
+    /**
+     * @return the offset of each field of the record at offset, relative to
+     * the record
+     */
+    private int[] recordFieldOffsets(ByteBuffer buf, int offset) {
+        int[] offsets = new int[td.numFields()];
+        int pos = 0;
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = pos;
+            Type type = td.getFieldType(j);
+            pos += type.isFixedLength() ? type.getLen() : 4 + buf.getInt(offset + pos);
+        }
+        return offsets;
     }
 
     /**
@@ -310,6 +515,33 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        copyOnWrite();
+        byte b = data.get(i / 8);
+        if (value) {
+            b |= (byte) (1 << (i % 8));
+        } else {
+            b &= (byte) ~(1 << (i % 8));
+        }
+        data.put(i / 8, b);
+    }
+
+    /**
+     * Give the page a private, writable copy of its buffer if the current one
+     * is shared.
+     */
+    private void copyOnWrite() {
+        synchronized (oldDataLock) {
+            if (shared) {
+                ByteBuffer copy = ByteBuffer.allocate(BufferPool.getPageSize());
+                ByteBuffer view = data.duplicate();
+                view.clear();
+                view.limit(Math.min(view.capacity(), copy.capacity()));
+                copy.put(view);
+                copy.clear();
+                data = copy;
+                shared = false;
+            }
+        }
     }
 
     /**
@@ -318,8 +550,46 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return null;
+        final ByteBuffer buf;
+        synchronized (oldDataLock) {
+            // 元组引用当前缓冲区，之后的修改需要先复制
+            buf = data;
+            shared = true;
+        }
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(buf, 0);
+
+            @Override
+            public boolean hasNext() {
+                return slot < slotCount(buf);
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                RecordId rid = new RecordId(pid, slot);
+                Tuple t;
+                if (slotted) {
+                    int offset = buf.getInt(SLOTTED_HEADER_SIZE + slot * SLOT_SIZE);
+                    t = new LazyTuple(td, buf, offset, recordFieldOffsets(buf, offset), rid);
+                } else {
+                    t = new LazyTuple(td, buf, headerSize + slot * tupleSize, fieldOffsets, rid);
+                }
+                slot = nextUsedSlot(buf, slot + 1);
+                return t;
+            }
+        };
     }
 
-}
+    private int nextUsedSlot(ByteBuffer buf, int from) {
+        int i = from;
+        int n = slotCount(buf);
+        while (i < n && !isUsed(buf, i)) {
+            i++;
+        }
+        return i;
+    }
 
+}
@@ -0,0 +1,125 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A tuple that is a view of a slot in a page buffer. A field is decoded from
+ * the buffer every time it is read, so a scan that looks at one or two
+ * columns never builds the others. The first call to {@link #setField}
+ * decodes every field into the tuple and detaches it from the buffer.
+ * 延迟解码的元组：字段在读取时才从页缓冲区解码
+ * <p>
+ * The buffer must not change while the tuple refers to it; HeapPage ensures
+ * this by copying its buffer before modifying it.
+ */
+class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 页缓冲区，脱离后为null
+     */
+    private transient ByteBuffer buf;
+
+    /**
+     * 各字段在缓冲区中的绝对偏移
+     */
+    private final int[] fieldOffsets;
+
+    private final int slotOffset;
+
+    /**
+     * @param td           the schema of the tuple
+     * @param buf          the page buffer
+     * @param slotOffset   where the tuple's slot starts in the buffer
+     * @param fieldOffsets the offset of each field within a slot
+     * @param rid          the tuple's RecordId
+     */
+    LazyTuple(TupleDesc td, ByteBuffer buf, int slotOffset, int[] fieldOffsets, RecordId rid) {
+        super(td, rid);
+        this.buf = buf;
+        this.slotOffset = slotOffset;
+        this.fieldOffsets = fieldOffsets;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (Objects.isNull(buf)) {
+            return super.getField(i);
+        }
+        if (i < 0 || i >= fieldOffsets.length) {
+            throw new RuntimeException("入参i非法异常");
+        }
+        return getTupleDesc().getFieldType(i).parse(buf, slotOffset + fieldOffsets[i]);
+    }
+
+    /**
+     * Read an int field straight from the buffer, without an IntField
+     */
+    @Override
+    public int getInt(int i) {
+        if (Objects.isNull(buf) || getTupleDesc().getFieldType(i) != Type.INT_TYPE) {
+            return super.getInt(i);
+        }
+        return buf.getInt(slotOffset + fieldOffsets[i]);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (Objects.nonNull(buf)) {
+            // 写时先把所有字段解码出来，脱离页缓冲区
+            List<Field> decoded = decodeAll();
+            buf = null;
+            for (int j = 0; j < decoded.size(); j++) {
+                super.setField(j, decoded.get(j));
+            }
+        }
+        super.setField(i, f);
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        if (Objects.isNull(buf)) {
+            return super.fields();
+        }
+        return decodeAll().iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            sb.append(getField(i));
+            if (i < fieldOffsets.length - 1) {
+                sb.append(" ");
+            }
+        }
+        return sb.toString();
+    }
+
+    private List<Field> decodeAll() {
+        List<Field> decoded = new ArrayList<>(fieldOffsets.length);
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            decoded.add(getField(i));
+        }
+        return decoded;
+    }
+
+    /**
+     * Serialization detaches the tuple, since the buffer can't be written out.
+     */
+    private Object writeReplace() {
+        Tuple copy = new Tuple(getTupleDesc());
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            copy.setField(i, getField(i));
+        }
+        copy.setRecordId(getRecordId());
+        return copy;
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb.storage;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum, SIGMOD '93).
+ * <p>
+ * The victim is the page whose K-th most recent reference lies furthest in the
+ * past. Pages referenced fewer than K times have an infinite backward
+ * K-distance and are evicted first, oldest last reference first. A page that
+ * is only touched once by a large sequential scan therefore never pushes out
+ * a page that is referenced over and over, such as the internal pages of a
+ * B+ tree used by point lookups.
+ * <p>
+ * Back-to-back references to the same page (e.g. an operator fetching the
+ * page it is already positioned on) are treated as one correlated reference,
+ * so they don't make a scanned page look hot.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * Default K, i.e. LRU-2
+     */
+    public static final int DEFAULT_K = 2;
+
+    /**
+     * 每页的访问历史
+     */
+    private static class History {
+        final PageId pid;
+        /**
+         * 最近K次访问时间，环形数组
+         */
+        final long[] refs;
+        int count = 0;
+        int head = 0;
+
+        History(PageId pid, int k) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void add(long time) {
+            refs[head] = time;
+            head = (head + 1) % refs.length;
+            if (count < refs.length) {
+                count++;
+            }
+        }
+
+        boolean hasK() {
+            return count == refs.length;
+        }
+
+        /**
+         * @return the K-th most recent reference if the page has K references,
+         * otherwise the most recent one
+         */
+        long orderTime() {
+            if (hasK()) {
+                return refs[head];
+            }
+            return refs[(head - 1 + refs.length) % refs.length];
+        }
+    }
+
+    /**
+     * 少于K次访问的页排在最前面，其余按第K次访问时间排序
+     */
+    private static final Comparator<History> EVICTION_ORDER = (h1, h2) -> {
+        if (h1.hasK() != h2.hasK()) {
+            return h1.hasK() ? 1 : -1;
+        }
+        return Long.compare(h1.orderTime(), h2.orderTime());
+    };
+
+    private final int k;
+
+    /**
+     * 逻辑时钟，每次访问加一，保证访问时间互不相同
+     */
+    private long clock = 0;
+
+    private PageId lastAccessed = null;
+
+    private final Map<PageId, History> histories = new HashMap<>();
+
+    private final TreeSet<History> queue = new TreeSet<>(EVICTION_ORDER);
+
+    public LruKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references to remember for each page, at least 1.
+     *          LRU-1 is plain LRU.
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+    }
+
+    @Override
+    public void recordAccess(PageId pid) {
+        History history = histories.get(pid);
+        if (Objects.nonNull(history) && pid.equals(lastAccessed)) {
+            // 相关访问，只算一次
+            return;
+        }
+        lastAccessed = pid;
+        if (Objects.isNull(history)) {
+            history = new History(pid, k);
+            histories.put(pid, history);
+        } else {
+            queue.remove(history);
+        }
+        history.add(clock++);
+        queue.add(history);
+    }
+
+    @Override
+    public void remove(PageId pid) {
+        History history = histories.remove(pid);
+        if (Objects.nonNull(history)) {
+            queue.remove(history);
+        }
+        if (pid.equals(lastAccessed)) {
+            lastAccessed = null;
+        }
+    }
+
+    @Override
+    public PageId chooseVictim(Predicate<PageId> canEvict) {
+        for (History history : queue) {
+            if (canEvict.test(history.pid)) {
+                return history.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,222 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+/**
+ * PageFileChannel reads and writes pages of a DbFile through one persistent
+ * FileChannel. Reads are served from memory mappings of the file, so a page
+ * read costs no open, seek or read syscall once its region is mapped. Writes
+ * are positional writes on the same channel; the mappings are shared with
+ * the file, so they see the written bytes.
+ * 页文件通道：每个DbFile持有一个，读页时直接从内存映射中切片，写页时按位置写
+ * <p>
+ * The file is mapped lazily in fixed-size regions. A region that was mapped
+ * while the file was shorter is remapped when a read goes past its end. A
+ * page that straddles two regions is read with a positional read instead.
+ * The file must not be truncated while it is mapped.
+ * <p>
+ * The mapped regions are published through a volatile array that is copied
+ * whenever a region is added, so a read of a region that is already mapped
+ * takes no lock. Mapping, writing and closing are serialized on the channel.
+ *
+ * @Threadsafe
+ */
+public class PageFileChannel {
+
+    /**
+     * 每个映射区域的大小
+     */
+    public static final int DEFAULT_REGION_SIZE = 1 << 26;
+
+    private final File f;
+    private final int regionSize;
+
+    private FileChannel channel;
+
+    /**
+     * 已映射的区域，下标=区域编号，未映射的为null
+     * 只整体替换、不原地修改，读时无需加锁
+     */
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    public PageFileChannel(File f) {
+        this(f, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param f          the file to read
+     * @param regionSize how many bytes each mapping covers
+     */
+    public PageFileChannel(File f, int regionSize) {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("regionSize must be positive");
+        }
+        this.f = f;
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * Return a read-only view of length bytes of the file starting at offset.
+     * The view shares memory with the mapping whenever the bytes fall inside
+     * one region.
+     *
+     * @throws IllegalArgumentException if the bytes extend past the end of
+     *                                  the file
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        int region = (int) (offset / regionSize);
+        int start = (int) (offset - (long) region * regionSize);
+        MappedByteBuffer[] mapped = regions;
+        if (start + (long) length <= regionSize && region < mapped.length
+                && Objects.nonNull(mapped[region]) && mapped[region].capacity() >= start + length) {
+            return view(mapped[region], start, length);
+        }
+        return sliceSlow(offset, length);
+    }
+
+    /**
+     * Serve a read that needs a new mapping or straddles two regions.
+     */
+    private synchronized ByteBuffer sliceSlow(long offset, int length) throws IOException {
+        FileChannel ch = channel();
+        int region = (int) (offset / regionSize);
+        long regionStart = (long) region * regionSize;
+        int start = (int) (offset - regionStart);
+        if (start + (long) length > regionSize) {
+            // 跨越两个区域，退化为按位置读取
+            return read(ch, offset, length).asReadOnlyBuffer();
+        }
+
+        MappedByteBuffer mapped = region < regions.length ? regions[region] : null;
+        if (Objects.isNull(mapped) || mapped.capacity() < start + length) {
+            long size = ch.size();
+            if (offset + length > size) {
+                throw new IllegalArgumentException("Read past end of " + f.getName());
+            }
+            mapped = map(ch, region, regionStart, size);
+        }
+        return view(mapped, start, length);
+    }
+
+    private static ByteBuffer view(MappedByteBuffer mapped, int start, int length) {
+        // 在副本上移动position，共享的映射本身不被修改
+        ByteBuffer view = mapped.duplicate();
+        view.position(start).limit(start + length);
+        return view.slice();
+    }
+
+    /**
+     * Copy length bytes of the file starting at offset into a new array.
+     *
+     * @see #slice(long, int)
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        slice(offset, length).get(data);
+        return data;
+    }
+
+    /**
+     * Write data to the file starting at offset, growing the file if needed.
+     */
+    public synchronized void write(long offset, byte[] data) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Write a batch of byte arrays, keyed on their offsets in the file. Arrays
+     * that sit back to back in the file go out in one gathering write, so a
+     * run of adjacent pages costs a single syscall.
+     */
+    public synchronized void write(SortedMap<Long, byte[]> writes) throws IOException {
+        FileChannel ch = channel();
+        List<ByteBuffer> run = new ArrayList<>();
+        long runStart = -1;
+        long runEnd = -1;
+        for (Map.Entry<Long, byte[]> e : writes.entrySet()) {
+            if (e.getKey() != runEnd) {
+                writeRun(ch, runStart, run);
+                run.clear();
+                runStart = e.getKey();
+                runEnd = runStart;
+            }
+            run.add(ByteBuffer.wrap(e.getValue()));
+            runEnd += e.getValue().length;
+        }
+        writeRun(ch, runStart, run);
+    }
+
+    /**
+     * Close the channel and drop the mappings. The next read reopens the file.
+     */
+    public synchronized void close() throws IOException {
+        regions = new MappedByteBuffer[0];
+        if (Objects.nonNull(channel)) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (Objects.isNull(channel) || !channel.isOpen()) {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            regions = new MappedByteBuffer[0];
+        }
+        return channel;
+    }
+
+    private MappedByteBuffer map(FileChannel ch, int region, long regionStart, long fileSize)
+            throws IOException {
+        long length = Math.min(regionSize, fileSize - regionStart);
+        MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+        // 复制后整体发布，无锁的读者看到的总是完整的数组
+        MappedByteBuffer[] grown = Arrays.copyOf(regions, Math.max(regions.length, region + 1));
+        grown[region] = mapped;
+        regions = grown;
+        return mapped;
+    }
+
+    private void writeRun(FileChannel ch, long offset, List<ByteBuffer> run) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] bufs = run.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buf : bufs) {
+            remaining += buf.remaining();
+        }
+        // 只有写操作使用通道的position，读都是按位置读，且方法已同步
+        ch.position(offset);
+        while (remaining > 0) {
+            remaining -= ch.write(bufs);
+        }
+    }
+
+    private ByteBuffer read(FileChannel ch, long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + buf.position());
+            if (n < 0) {
+                throw new IllegalArgumentException("Read past end of " + f.getName());
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+}
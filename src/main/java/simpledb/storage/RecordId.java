@@ -1,6 +1,7 @@
 package simpledb.storage;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * A RecordId is a reference to a specific tuple on a specific page of a
@@ -11,6 +12,16 @@ public class RecordId implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * 元组所在页的id
+     */
+    private final PageId pid;
+
+    /**
+     * 元组在页中的槽号
+     */
+    private final int tupleno;
+
     /**
      * Creates a new RecordId referring to the specified PageId and tuple
      * number.
@@ -20,6 +31,8 @@ public class RecordId implements Serializable {
      */
     public RecordId(PageId pid, int tupleno) {
         // some code goes here
+        this.pid = pid;
+        this.tupleno = tupleno;
     }
 
     /**
@@ -27,7 +40,7 @@ public class RecordId implements Serializable {
      */
     public int getTupleNumber() {
         // some code goes here
-        return 0;
+        return tupleno;
     }
 
     /**
@@ -35,7 +48,7 @@ public class RecordId implements Serializable {
      */
     public PageId getPageId() {
         // some code goes here
-        return null;
+        return pid;
     }
 
     /**
@@ -47,7 +60,14 @@ public class RecordId implements Serializable {
     @Override
     public boolean equals(Object o) {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RecordId)) {
+            return false;
+        }
+        RecordId other = (RecordId) o;
+        return tupleno == other.tupleno && Objects.equals(pid, other.pid);
     }
 
     /**
@@ -59,8 +79,7 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        throw new UnsupportedOperationException("implement this");
-
+        return 31 * Objects.hashCode(pid) + tupleno;
     }
 
 }
@@ -0,0 +1,204 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes once and
+ * then reads back, for when its input does not fit in memory. Tuples are
+ * packed into pages in the HeapPage format, so fixed and variable length
+ * schemas are stored the same way as in a table, but the pages bypass the
+ * BufferPool: they are not locked, logged or cached.
+ * 溢出到磁盘的临时元组文件，按HeapPage格式写页
+ * <p>
+ * Tuples are appended with {@link #add}; the first call to
+ * {@link #iterator()} writes the last partial page, after which the file
+ * can be read any number of times but not appended to. {@link #close()}
+ * deletes the file.
+ */
+public class SpillFile implements Iterable<Tuple>, Closeable {
+
+    private final TupleDesc td;
+    private final File file;
+
+    /**
+     * 写入流，写完后为null
+     */
+    private FileOutputStream out;
+
+    /**
+     * 正在填充的页
+     */
+    private HeapPage page;
+
+    private int numPages = 0;
+    private int numTuples = 0;
+
+    /**
+     * 当前页中的元组数
+     */
+    private int pageTuples = 0;
+
+    /**
+     * Create an empty spill file for tuples of the given TupleDesc.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat");
+        this.file.deleteOnExit();
+        this.out = new FileOutputStream(file);
+        this.page = newPage();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of pages written so far
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    private HeapPage newPage() throws IOException {
+        return new HeapPage(new HeapPageId(0, numPages), td, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+    }
+
+    /**
+     * Append a copy of the tuple. The tuple itself is not changed.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (Objects.isNull(out)) {
+            throw new IllegalStateException("spill file has already been read");
+        }
+        if (page.append(t) < 0) {
+            writePage();
+            page = newPage();
+            pageTuples = 0;
+            if (page.append(t) < 0) {
+                throw new IOException("tuple does not fit in a page");
+            }
+        }
+        pageTuples++;
+        numTuples++;
+    }
+
+    private void writePage() throws IOException {
+        out.write(page.getPageData());
+        numPages++;
+    }
+
+    /**
+     * Write the last page and close the output. Called by {@link #iterator()}.
+     */
+    public void finish() throws IOException {
+        if (Objects.isNull(out)) {
+            return;
+        }
+        if (pageTuples > 0) {
+            writePage();
+        }
+        page = null;
+        out.close();
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples in the order they were added. Each
+     * page is read when the iterator reaches it. The file stays open until
+     * the iterator reaches the end or is closed.
+     */
+    public CloseableIterator<Tuple> iterator() {
+        try {
+            finish();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new CloseableIterator<Tuple>() {
+            private DataInputStream in;
+            private int pageNo = 0;
+            private Iterator<Tuple> pageIt = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (!pageIt.hasNext() && pageNo < numPages) {
+                        if (Objects.isNull(in)) {
+                            in = new DataInputStream(new FileInputStream(file));
+                        }
+                        byte[] data = new byte[BufferPool.getPageSize()];
+                        in.readFully(data);
+                        pageIt = new HeapPage(new HeapPageId(0, pageNo++), td, ByteBuffer.wrap(data)).iterator();
+                        if (pageNo == numPages) {
+                            closeInput();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return pageIt.hasNext();
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return pageIt.next();
+            }
+
+            @Override
+            public void close() {
+                pageNo = numPages;
+                pageIt = Collections.emptyIterator();
+                closeInput();
+            }
+
+            private void closeInput() {
+                if (Objects.nonNull(in)) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // 只读的流，关闭失败可以忽略
+                    }
+                    in = null;
+                }
+            }
+        };
+    }
+
+    /**
+     * Delete the file.
+     */
+    public void close() {
+        try {
+            if (Objects.nonNull(out)) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            // 文件随后会被删除，关闭失败可以忽略
+        }
+        page = null;
+        file.delete();
+    }
+}
@@ -48,6 +48,19 @@ public class Tuple implements Serializable {
         }
     }
 
+    /**
+     * For subclasses that keep their field values elsewhere: no field list is
+     * allocated until the first call to {@link #setField}.
+     * 供子类使用，字段列表延迟到第一次setField时再分配
+     */
+    protected Tuple(TupleDesc td, RecordId rid) {
+        if (Objects.isNull(td) || td.numFields() < 1) {
+            throw new RuntimeException("初始化失败，请检查参数");
+        }
+        this.td = td;
+        this.rid = rid;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,6 +97,9 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+        if (Objects.isNull(fields)) {
+            fields = new ArrayList<>(Collections.nCopies(td.numFields(), (Field) null));
+        }
         if (i < 0 || i >= fields.size()) {
             throw new RuntimeException("入参i非法异常");
         }
@@ -107,6 +123,16 @@ public class Tuple implements Serializable {
         return fields.get(i);
     }
 
+    /**
+     * Return the value of an INT_TYPE field as an int. Subclasses that keep
+     * their values in primitive form override this to skip the IntField.
+     *
+     * @param i index of an INT_TYPE field
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
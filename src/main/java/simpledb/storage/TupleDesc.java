@@ -180,7 +180,9 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     * Note that tuples from a given TupleDesc are of a fixed size.
+     * Note that tuples from a given TupleDesc are of a fixed size, unless
+     * {@link #isFixedLength()} is false, in which case this is the largest
+     * size a tuple can take.
      */
     public int getSize() {
         // some code goes here
@@ -193,6 +195,20 @@ public class TupleDesc implements Serializable {
         return byteSize;
     }
 
+    /**
+     * @return true if no field of this TupleDesc has a variable length type
+     */
+    public boolean isFixedLength() {
+        if (Objects.nonNull(tdItems)) {
+            for (TDItem tdItem : tdItems) {
+                if (!tdItem.fieldType.isFixedLength()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
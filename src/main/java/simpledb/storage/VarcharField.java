@@ -0,0 +1,46 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Instance of Field that stores a String of at most {@link Type#STRING_LEN}
+ * characters and only takes as many bytes as the string needs on disk.
+ * 变长字符串字段，比较与哈希同StringField
+ */
+public class VarcharField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param s The value of this field; longer values are cut to
+     *          {@link Type#STRING_LEN} characters
+     */
+    public VarcharField(String s) {
+        super(s, Type.STRING_LEN);
+    }
+
+    /**
+     * Write this string to dos: four bytes of length followed by the string,
+     * without padding.
+     *
+     * @param dos Where the string is written
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(getValue().length());
+        dos.writeBytes(getValue());
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    @Override
+    public Type getType() {
+        return Type.VARCHAR_TYPE;
+    }
+}
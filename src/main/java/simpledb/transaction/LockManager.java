@@ -0,0 +1,462 @@
+package simpledb.transaction;
+
+import simpledb.storage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager implements strict two-phase locking at page granularity.
+ * 页级别的两阶段锁管理器
+ * <p>
+ * Every page has a queue of lock requests. The granted requests sit at the
+ * head of the queue and the waiting ones behind them, in arrival order.
+ * Shared locks are compatible with each other, an exclusive lock with
+ * nothing. A waiting request is granted only when it is compatible with all
+ * granted requests and every request ahead of it has been granted, so a stream
+ * of readers cannot starve a writer. A transaction holding the only shared
+ * lock on a page may upgrade it to an exclusive lock; otherwise the upgrade
+ * waits at the front of the waiting requests.
+ * <p>
+ * Locks are held until {@link #releaseAll} is called at commit or abort.
+ * <p>
+ * Deadlocks are found with a waits-for graph. A waiting request has an edge
+ * to every transaction ahead of it in its queue that keeps it from being
+ * granted; the edges of a queue are recomputed whenever the queue changes.
+ * A new edge can only close a cycle through the transaction it starts from,
+ * so whenever a waiting request gains an edge, the cycles through its
+ * transaction are broken one at a time until none is left. The youngest
+ * transaction in each cycle (the one with the largest id) is aborted, which
+ * wastes the least work.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * Lock modes
+     */
+    public enum LockType {
+        SHARED, EXCLUSIVE
+    }
+
+    /**
+     * Lock requests wait until they are granted or chosen as a deadlock
+     * victim, unless a timeout is given to the constructor.
+     */
+    public static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+    /**
+     * 一个加锁请求
+     */
+    private static class LockRequest {
+        final TransactionId tid;
+        final LockType type;
+        final Condition granted;
+        boolean isGranted = false;
+        /**
+         * 被选为死锁牺牲者
+         */
+        boolean aborted = false;
+        /**
+         * 等待图中的出边：阻塞本请求的事务
+         */
+        Set<TransactionId> blockers = new HashSet<>();
+
+        LockRequest(TransactionId tid, LockType type, Condition granted) {
+            this.tid = tid;
+            this.type = type;
+            this.granted = granted;
+        }
+    }
+
+    /**
+     * 保护整个锁表的锁
+     */
+    private final ReentrantLock latch = new ReentrantLock();
+
+    /**
+     * 锁表，key=页id，value=该页的请求队列（已授予的在前，等待的在后）
+     */
+    private final Map<PageId, LinkedList<LockRequest>> lockTable = new HashMap<>();
+
+    /**
+     * 事务持有锁的页，key=事务id，value=页id集合
+     */
+    private final Map<TransactionId, Set<PageId>> pagesHeld = new HashMap<>();
+
+    /**
+     * 等待中的请求，key=事务id，value=该事务尚未授予的请求
+     */
+    private final Map<TransactionId, Set<LockRequest>> waiting = new HashMap<>();
+
+    /**
+     * 检测到的死锁数量
+     */
+    private long deadlocksDetected = 0;
+
+    private final long lockTimeoutMs;
+
+    public LockManager() {
+        this(NO_TIMEOUT);
+    }
+
+    /**
+     * @param lockTimeoutMs how long a lock request waits before aborting, or
+     *                      {@link #NO_TIMEOUT}
+     */
+    public LockManager(long lockTimeoutMs) {
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    /**
+     * Acquire a lock on the specified page, blocking until it is granted.
+     * Returns immediately if the transaction already holds a lock at least as
+     * strong as the one requested.
+     *
+     * @param tid  the transaction requesting the lock
+     * @param pid  the page to lock
+     * @param type the lock mode
+     * @throws TransactionAbortedException if the transaction was chosen as
+     *                                     the victim of a deadlock, the request
+     *                                     timed out or the thread was
+     *                                     interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, LockType type)
+            throws TransactionAbortedException {
+        latch.lock();
+        try {
+            LinkedList<LockRequest> queue = lockTable.computeIfAbsent(pid, k -> new LinkedList<>());
+            LockRequest held = grantedRequest(queue, tid);
+            if (Objects.nonNull(held)
+                    && (held.type == LockType.EXCLUSIVE || type == LockType.SHARED)) {
+                return;
+            }
+
+            LockRequest request = new LockRequest(tid, type, latch.newCondition());
+            if (Objects.nonNull(held)) {
+                // 升级请求排在所有等待请求之前
+                queue.add(indexOfFirstWaiter(queue), request);
+            } else {
+                queue.addLast(request);
+            }
+            // 先登记为等待，授予时再移除，这样新边的死锁检测能看到它
+            waiting.computeIfAbsent(tid, k -> new HashSet<>()).add(request);
+            grantWaiters(queue);
+
+            long nanos = lockTimeoutMs == NO_TIMEOUT
+                    ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(lockTimeoutMs);
+            while (!request.isGranted) {
+                if (request.aborted || nanos <= 0L) {
+                    abandon(pid, queue, request);
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    nanos = request.granted.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    abandon(pid, queue, request);
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+
+            if (Objects.nonNull(held)) {
+                // 升级完成，去掉原来的共享锁
+                queue.remove(held);
+            }
+            pagesHeld.computeIfAbsent(tid, k -> new HashSet<>()).add(pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Release the lock the transaction holds on the specified page, if any.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            Set<PageId> pids = pagesHeld.get(tid);
+            if (Objects.nonNull(pids)) {
+                pids.remove(pid);
+                if (pids.isEmpty()) {
+                    pagesHeld.remove(tid);
+                }
+            }
+            releaseRequests(tid, pid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Release every lock held by the transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pids = pagesHeld.remove(tid);
+            if (Objects.nonNull(pids)) {
+                for (PageId pid : pids) {
+                    releaseRequests(tid, pid);
+                }
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return true if the transaction holds a lock (of any mode) on the page
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        latch.lock();
+        try {
+            LinkedList<LockRequest> queue = lockTable.get(pid);
+            return Objects.nonNull(queue) && Objects.nonNull(grantedRequest(queue, tid));
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return the number of deadlocks found so far
+     */
+    public long getDeadlocksDetected() {
+        latch.lock();
+        try {
+            return deadlocksDetected;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * @return the pages the transaction holds locks on
+     */
+    public Set<PageId> pagesLockedBy(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pids = pagesHeld.get(tid);
+            return Objects.isNull(pids) ? new HashSet<>() : new HashSet<>(pids);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    // ===================== Private Methods =================================
+    // All of them are called with the latch held.
+
+    private void releaseRequests(TransactionId tid, PageId pid) {
+        LinkedList<LockRequest> queue = lockTable.get(pid);
+        if (Objects.isNull(queue)) {
+            return;
+        }
+        queue.removeIf(r -> r.isGranted && r.tid.equals(tid));
+        if (queue.isEmpty()) {
+            lockTable.remove(pid);
+        } else {
+            grantWaiters(queue);
+        }
+    }
+
+    /**
+     * Withdraw a request that was never granted and let the ones behind it
+     * move up.
+     */
+    private void abandon(PageId pid, LinkedList<LockRequest> queue, LockRequest request) {
+        queue.remove(request);
+        stopWaiting(request);
+        if (queue.isEmpty()) {
+            lockTable.remove(pid);
+        } else {
+            grantWaiters(queue);
+        }
+    }
+
+    /**
+     * Grant waiting requests in FIFO order, stopping at the first one that
+     * is incompatible with the granted group, then update the waits-for
+     * edges of the ones still waiting and break any cycle the new edges
+     * close.
+     */
+    private void grantWaiters(LinkedList<LockRequest> queue) {
+        ListIterator<LockRequest> it = queue.listIterator(indexOfFirstWaiter(queue));
+        while (it.hasNext()) {
+            LockRequest request = it.next();
+            if (!compatible(queue, request)) {
+                break;
+            }
+            request.isGranted = true;
+            stopWaiting(request);
+            request.granted.signal();
+        }
+        for (TransactionId tid : refreshBlockers(queue)) {
+            resolveDeadlocks(tid);
+        }
+    }
+
+    /**
+     * Recompute the waits-for edges of every waiting request in the queue: a
+     * request waits for each other transaction ahead of it that is either
+     * still waiting (FIFO) or holds an incompatible lock.
+     *
+     * @return the transactions whose requests gained an edge
+     */
+    private Set<TransactionId> refreshBlockers(LinkedList<LockRequest> queue) {
+        Set<TransactionId> gained = new HashSet<>();
+        int i = 0;
+        for (LockRequest request : queue) {
+            if (!request.isGranted && !request.aborted) {
+                Set<TransactionId> blockers = new HashSet<>();
+                Iterator<LockRequest> ahead = queue.iterator();
+                for (int j = 0; j < i; j++) {
+                    LockRequest r = ahead.next();
+                    if (r.tid.equals(request.tid)) {
+                        continue;
+                    }
+                    if (!r.isGranted || r.type == LockType.EXCLUSIVE
+                            || request.type == LockType.EXCLUSIVE) {
+                        blockers.add(r.tid);
+                    }
+                }
+                if (!request.blockers.containsAll(blockers)) {
+                    gained.add(request.tid);
+                }
+                request.blockers = blockers;
+            }
+            i++;
+        }
+        return gained;
+    }
+
+    private void stopWaiting(LockRequest request) {
+        request.blockers = new HashSet<>();
+        Set<LockRequest> requests = waiting.get(request.tid);
+        if (Objects.nonNull(requests)) {
+            requests.remove(request);
+            if (requests.isEmpty()) {
+                waiting.remove(request.tid);
+            }
+        }
+    }
+
+    /**
+     * Break every cycle in the waits-for graph through the transaction, by
+     * aborting the youngest member of each in turn. The victim's waiting
+     * requests lose their edges right away, so the same cycle is never
+     * reported twice and the loop ends.
+     */
+    private void resolveDeadlocks(TransactionId start) {
+        List<TransactionId> cycle;
+        while (Objects.nonNull(cycle = findCycle(start))) {
+            deadlocksDetected++;
+            TransactionId victim = start;
+            for (TransactionId tid : cycle) {
+                if (tid.getId() > victim.getId()) {
+                    victim = tid;
+                }
+            }
+            Set<LockRequest> requests = waiting.remove(victim);
+            if (Objects.nonNull(requests)) {
+                for (LockRequest r : requests) {
+                    r.aborted = true;
+                    r.blockers = new HashSet<>();
+                    r.granted.signal();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the transactions on a cycle through start, or null if there
+     * is none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Deque<TransactionId> path = new ArrayDeque<>();
+        Deque<Iterator<TransactionId>> edges = new ArrayDeque<>();
+        Set<TransactionId> visited = new HashSet<>();
+        path.push(start);
+        edges.push(successors(start).iterator());
+        visited.add(start);
+        while (!edges.isEmpty()) {
+            Iterator<TransactionId> it = edges.peek();
+            if (!it.hasNext()) {
+                edges.pop();
+                path.pop();
+                continue;
+            }
+            TransactionId next = it.next();
+            if (next.equals(start)) {
+                return new ArrayList<>(path);
+            }
+            if (visited.add(next)) {
+                path.push(next);
+                edges.push(successors(next).iterator());
+            }
+        }
+        return null;
+    }
+
+    private Set<TransactionId> successors(TransactionId tid) {
+        Set<LockRequest> requests = waiting.get(tid);
+        if (Objects.isNull(requests)) {
+            return new HashSet<>();
+        }
+        Set<TransactionId> result = new HashSet<>();
+        for (LockRequest r : requests) {
+            result.addAll(r.blockers);
+        }
+        return result;
+    }
+
+    private static boolean compatible(LinkedList<LockRequest> queue, LockRequest request) {
+        for (LockRequest r : queue) {
+            if (!r.isGranted) {
+                break;
+            }
+            if (r.tid.equals(request.tid)) {
+                continue;
+            }
+            if (r.type == LockType.EXCLUSIVE || request.type == LockType.EXCLUSIVE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static LockRequest grantedRequest(LinkedList<LockRequest> queue, TransactionId tid) {
+        LockRequest result = null;
+        for (LockRequest r : queue) {
+            if (!r.isGranted) {
+                break;
+            }
+            if (r.tid.equals(tid) && (Objects.isNull(result) || r.type == LockType.EXCLUSIVE)) {
+                result = r;
+            }
+        }
+        return result;
+    }
+
+    private static int indexOfFirstWaiter(LinkedList<LockRequest> queue) {
+        int i = 0;
+        Iterator<LockRequest> it = queue.iterator();
+        while (it.hasNext() && it.next().isGranted) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class AccessPathTest extends SimpleDbTestBase {
+
+    private BTreeFile table;
+    private Map<String, TableStats> stats;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 20000, 10000, null, null, 0);
+        // 换成带字段名的TupleDesc，查询按名字引用字段
+        table = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "ap_bt");
+        stats = new HashMap<>();
+        stats.put("ap_bt", new TableStats(table.getId(), 1000));
+        tid = new TransactionId();
+    }
+
+    /**
+     * @return the operators of a plan, from the root down the first child
+     */
+    private static List<OpIterator> chain(OpIterator plan) {
+        List<OpIterator> chain = new ArrayList<>();
+        chain.add(plan);
+        while (plan instanceof Operator && ((Operator) plan).getChildren().length > 0) {
+            plan = ((Operator) plan).getChildren()[0];
+            chain.add(plan);
+        }
+        return chain;
+    }
+
+    private static OpIterator leaf(OpIterator plan) {
+        List<OpIterator> chain = chain(plan);
+        return chain.get(chain.size() - 1);
+    }
+
+    private static long filters(OpIterator plan) {
+        return chain(plan).stream().filter(o -> o instanceof Filter).count();
+    }
+
+    private OpIterator plan(String where) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM ap_bt WHERE " + where + ";");
+        return lp.physicalPlan(tid, stats, false);
+    }
+
+    /**
+     * @return the rows of a sequential scan of the table through filters
+     */
+    private List<String> scanRows(Predicate... preds) throws Exception {
+        OpIterator it = new SeqScan(tid, table.getId(), "ap_bt");
+        for (Predicate p : preds) {
+            it = new Filter(p, it);
+        }
+        return SystemTestUtil.sortedRows(it);
+    }
+
+    /**
+     * Point and narrow range predicates on the key are answered by an index
+     * scan, with no Filter left for them
+     */
+    @Test public void selectiveKeyPredicates() throws Exception {
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        String[] wheres = {"ap_bt.c0 = 17", "ap_bt.c0 < 300", "ap_bt.c0 >= 9800"};
+        int[] constants = {17, 300, 9800};
+        for (int i = 0; i < ops.length; i++) {
+            OpIterator plan = plan(wheres[i]);
+            assertTrue(wheres[i], leaf(plan) instanceof BTreeScan);
+            assertEquals(wheres[i], 0, filters(plan));
+            assertEquals(wheres[i], scanRows(new Predicate(0, ops[i], new IntField(constants[i]))),
+                    SystemTestUtil.sortedRows(plan));
+        }
+    }
+
+    /**
+     * A predicate that keeps most of the table, or that the index cannot
+     * answer, is evaluated over a full scan
+     */
+    @Test public void fullScans() throws Exception {
+        for (String where : new String[]{"ap_bt.c0 > 100", "ap_bt.c1 = 17", "ap_bt.c0 <> 17"}) {
+            OpIterator plan = plan(where);
+            assertTrue(where, leaf(plan) instanceof SeqScan);
+            assertEquals(where, 1, filters(plan));
+        }
+    }
+
+    /**
+     * Filters the index does not answer stay above the index scan
+     */
+    @Test public void remainingFilters() throws Exception {
+        OpIterator plan = plan("ap_bt.c0 < 500 AND ap_bt.c1 > 5000");
+        assertTrue(leaf(plan) instanceof BTreeScan);
+        assertEquals(1, filters(plan));
+        assertEquals(scanRows(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(5000))), SystemTestUtil.sortedRows(plan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
@@ -0,0 +1,268 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchIterator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+    /**
+     * Count the selected rows of every batch, checking that no batch is empty
+     */
+    private static int countBatches(BatchIterator it) throws Exception {
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.numSelected() > 0);
+            assertTrue(batch.numSelected() <= batch.capacity());
+            count += batch.numSelected();
+        }
+        return count;
+    }
+
+    private static int countRows(OpIterator it) throws Exception {
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A filter narrows the selection; a projection on top keeps it
+     */
+    @Test public void filterProject() throws Exception {
+        OpIterator scan = new TestUtil.MockScan(0, 3000, 2);
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2500)), scan);
+        Project project = new Project(Arrays.asList(1), new Type[]{Type.INT_TYPE}, filter);
+        project.open();
+
+        TupleBatch batch = project.nextBatch();
+        assertEquals(1, batch.getTupleDesc().numFields());
+        assertEquals(0, ((IntField) batch.getField(0, batch.selectedRow(0))).getValue());
+        int count = batch.numSelected();
+        count += countBatches(project);
+        assertEquals(2500, count);
+        assertNull(project.nextBatch());
+
+        project.rewind();
+        assertEquals(2500, countRows(project));
+        project.close();
+    }
+
+    /**
+     * Rows of a batch that fail the predicate are skipped, and batches with
+     * no passing rows are never returned
+     */
+    @Test public void sparseFilter() throws Exception {
+        OpIterator scan = new TestUtil.MockScan(0, 5000, 1);
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(4990)), scan);
+        filter.open();
+        TupleBatch batch = filter.nextBatch();
+        assertEquals(10, batch.numSelected());
+        assertEquals(4990, ((IntField) batch.getField(0, batch.selectedRow(0))).getValue());
+        assertNull(filter.nextBatch());
+        filter.close();
+    }
+
+    /**
+     * The hash join produces the same rows in batches and one at a time,
+     * including when the build side does not fit in one hash table chunk
+     */
+    @Test public void hashJoin() throws Exception {
+        int n = HashEquiJoin.MAP_SIZE + 5000;
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred,
+                new TestUtil.MockScan(0, n, 2), new TestUtil.MockScan(1000, n + 1000, 1));
+        join.open();
+        assertEquals(n - 1000, countBatches(join));
+        join.rewind();
+        assertEquals(n - 1000, countRows(join));
+        join.close();
+    }
+
+    /**
+     * A build side bigger than the memory budget is partitioned to disk and
+     * produces the same rows
+     */
+    @Test public void graceHashJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred,
+                new TestUtil.MockScan(0, 10000, 2), new TestUtil.MockScan(5000, 20000, 1), 500);
+        join.open();
+        assertTrue(join.getSpilledPartitions() > 0);
+        int sum = 0;
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = join.nextBatch()) != null) {
+            for (int i = 0; i < batch.numSelected(); i++) {
+                int row = batch.selectedRow(i);
+                assertEquals(batch.getInt(0, row), batch.getInt(2, row));
+                sum += batch.getInt(0, row);
+                count++;
+            }
+        }
+        assertEquals(5000, count);
+        assertEquals((5000 + 9999) * 5000 / 2, sum);
+        join.rewind();
+        assertEquals(5000, countRows(join));
+        join.close();
+    }
+
+    /**
+     * A partition that stays too big because every row has the same key is
+     * joined in chunks
+     */
+    @Test public void graceHashJoinSkew() throws Exception {
+        int[] left = new int[2000];
+        int[] right = new int[]{0, 1, 0};
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred,
+                TestUtil.createTupleList(1, left), TestUtil.createTupleList(1, right), 300);
+        join.open();
+        assertEquals(4000, countBatches(join));
+        join.close();
+    }
+
+    /**
+     * INT join keys use the primitive hash table; it must agree with the
+     * Field keyed map used for other types, including for negative keys,
+     * duplicates and keys that collide in the table
+     */
+    @Test public void intKeysMatchFieldKeys() throws Exception {
+        int n = 3000;
+        Object[] left = new Object[n * 2];
+        Object[] right = new Object[n * 2];
+        int[] leftInts = new int[n];
+        int[] rightInts = new int[n];
+        for (int i = 0; i < n; i++) {
+            // 步长为2的幂的键在开放寻址表中容易冲突
+            leftInts[i] = (i % 1000 - 500) * 1024;
+            rightInts[i] = (i % 1500 - 500) * 1024;
+            left[2 * i] = leftInts[i];
+            left[2 * i + 1] = "l" + leftInts[i];
+            right[2 * i] = rightInts[i];
+            right[2 * i + 1] = "l" + rightInts[i];
+        }
+        HashEquiJoin intJoin = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(1, leftInts), TestUtil.createTupleList(1, rightInts));
+        HashEquiJoin stringJoin = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+        intJoin.open();
+        stringJoin.open();
+        int count = 0;
+        TupleBatch batch;
+        while ((batch = intJoin.nextBatch()) != null) {
+            for (int i = 0; i < batch.numSelected(); i++) {
+                int row = batch.selectedRow(i);
+                assertEquals(batch.getInt(0, row), batch.getInt(1, row));
+            }
+            count += batch.numSelected();
+        }
+        // 左侧每个键出现3次，右侧键-500..499各出现2次
+        assertEquals(1000 * 3 * 2, count);
+        assertEquals(count, countRows(stringJoin));
+        intJoin.close();
+        stringJoin.close();
+    }
+
+    /**
+     * A key with more matches than fit in one output batch
+     */
+    @Test public void hashJoinManyMatches() throws Exception {
+        int[] left = new int[3000];
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin join = new HashEquiJoin(pred,
+                TestUtil.createTupleList(1, left), TestUtil.createTupleList(1, new int[]{0, 1, 0}));
+        join.open();
+        assertEquals(6000, countBatches(join));
+        join.close();
+    }
+
+    /**
+     * Aggregates consume their input in batches
+     */
+    @Test public void aggregate() throws Exception {
+        Aggregate agg = new Aggregate(new TestUtil.MockScan(0, 2000, 1), 0,
+                Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        TupleBatch batch = agg.nextBatch();
+        assertEquals(1, batch.numSelected());
+        assertEquals(1999000, ((IntField) batch.getField(0, batch.selectedRow(0))).getValue());
+        assertNull(agg.nextBatch());
+        agg.close();
+    }
+
+    /**
+     * INT_TYPE columns are kept as ints and only boxed on request
+     */
+    @Test public void intColumns() throws Exception {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 4);
+        assertTrue(batch.isIntColumn(0));
+        batch.addTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        int row = batch.addRow();
+        batch.setInt(0, row, 5);
+        batch.setField(1, row, new IntField(6));
+
+        assertEquals(3, batch.intColumn(0)[0]);
+        assertEquals(6, batch.getInt(1, row));
+        assertEquals(new IntField(5), batch.getField(0, row));
+        Tuple t = batch.getTuple(0);
+        assertEquals(4, t.getInt(1));
+
+        TupleBatch view = batch.project(new int[]{1}, Utility.getTupleDesc(1));
+        assertEquals(6, view.intColumn(0)[row]);
+    }
+
+    /**
+     * The int fast path of Filter selects the same rows as comparing Fields
+     */
+    @Test public void intFilterMatchesFields() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE) {
+                continue;
+            }
+            Predicate p = new Predicate(0, op, new IntField(1500));
+            Filter filter = new Filter(p, new TestUtil.MockScan(0, 3000, 1));
+            filter.open();
+            int expected = 0;
+            for (int i = 0; i < 3000; i++) {
+                if (new IntField(i).compare(op, new IntField(1500))) {
+                    expected++;
+                }
+            }
+            assertEquals(op.toString(), expected, countBatches(filter));
+            filter.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchIteratorTest.class);
+    }
+}
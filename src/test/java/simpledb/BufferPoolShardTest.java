@@ -0,0 +1,196 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreePageId;
+import simpledb.storage.BufferPool;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private static final int TABLE_ID = -7;
+
+    /**
+     * DbFile that makes up empty header pages and counts disk reads. A read
+     * of the slow page waits until release is counted down.
+     */
+    private static class CountingFile extends SkeletonFile {
+        final AtomicInteger reads = new AtomicInteger(0);
+        volatile PageId slow;
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        CountingFile() {
+            super(TABLE_ID, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId id) {
+            reads.incrementAndGet();
+            if (id.equals(slow)) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            try {
+                return new BTreeHeaderPage((BTreePageId) id, BTreeHeaderPage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private CountingFile file;
+
+    private static BTreePageId pid(int pgNo) {
+        return new BTreePageId(TABLE_ID, pgNo, BTreePageId.HEADER);
+    }
+
+    @Before
+    public void addTable() {
+        file = new CountingFile();
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Pages are evicted once the pool is full, and hits don't go to disk
+     */
+    @Test
+    public void evictsWhenFull() throws Exception {
+        BufferPool bp = new BufferPool(4, 2, LruKEvictionPolicy::new);
+        TransactionId tid = new TransactionId();
+        for (int i = 1; i <= 20; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(20, file.reads.get());
+
+        Page p = bp.getPage(tid, pid(20), Permissions.READ_ONLY);
+        assertSame(p, bp.getPage(tid, pid(20), Permissions.READ_ONLY));
+        assertEquals(20, file.reads.get());
+    }
+
+    /**
+     * Dirty pages are never evicted (NO STEAL)
+     */
+    @Test
+    public void allDirty() throws Exception {
+        BufferPool bp = new BufferPool(2, 2, LruKEvictionPolicy::new);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, pid(1), Permissions.READ_ONLY).markDirty(true, tid);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY).markDirty(true, tid);
+        try {
+            bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * Many threads reading overlapping pages through a small pool
+     */
+    @Test
+    public void concurrentGetPage() throws Exception {
+        final BufferPool bp = new BufferPool(16, 4, LruKEvictionPolicy::new);
+        final List<Throwable> errors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            threads.add(new Thread(() -> {
+                Random rand = new Random(seed);
+                TransactionId tid = new TransactionId();
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        BTreePageId id = pid(rand.nextInt(64) + 1);
+                        Page p = bp.getPage(tid, id, Permissions.READ_ONLY);
+                        assertEquals(id, p.getId());
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * A slow disk read does not hold up hits on its shard, and other
+     * requests for the same page wait for that read rather than repeat it
+     */
+    @Test(timeout = 10000)
+    public void readOutsideLatch() throws Exception {
+        final BufferPool bp = new BufferPool(8, 1, LruKEvictionPolicy::new);
+        Page cached = bp.getPage(new TransactionId(), pid(1), Permissions.READ_ONLY);
+        file.slow = pid(2);
+        final Page[] loaded = new Page[2];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            final int i = t;
+            threads.add(new Thread(() -> {
+                try {
+                    loaded[i] = bp.getPage(new TransactionId(), pid(2), Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        threads.get(0).start();
+        file.reading.await();
+        threads.get(1).start();
+
+        // 单分片，读盘期间命中也不阻塞
+        assertSame(cached, bp.getPage(new TransactionId(), pid(1), Permissions.READ_ONLY));
+        Thread.sleep(100);
+        assertTrue(threads.get(1).isAlive());
+
+        file.release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertSame(loaded[0], loaded[1]);
+        assertEquals(2, file.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
@@ -103,6 +103,37 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * A file replaced under its name, or dropped by clear, is closed; one
+     * that is still in the catalog is not
+     */
+    @Test
+    public void closesDroppedFiles() {
+        ClosingFile first = new ClosingFile(r.nextInt());
+        ClosingFile second = new ClosingFile(r.nextInt());
+        Database.getCatalog().addTable(first, "closing");
+        Database.getCatalog().addTable(first, "closing");
+        assertEquals(0, first.closed);
+        Database.getCatalog().addTable(second, "closing");
+        assertEquals(1, first.closed);
+        assertEquals(0, second.closed);
+        Database.getCatalog().clear();
+        assertEquals(1, second.closed);
+    }
+
+    private static class ClosingFile extends SkeletonFile {
+        int closed = 0;
+
+        ClosingFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public void close() {
+            closed++;
+        }
+    }
+
     /**
      * JUnit suite target
      */
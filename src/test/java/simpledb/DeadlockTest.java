@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -19,6 +22,7 @@ import simpledb.transaction.TransactionId;
 public class DeadlockTest extends TestUtil.CreateHeapFile {
   private PageId p0;
     private PageId p1;
+    private PageId p2;
     private TransactionId tid1, tid2;
   private Random rand;
 
@@ -49,7 +53,7 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
 
     this.p0 = new HeapPageId(empty.getId(), 0);
     this.p1 = new HeapPageId(empty.getId(), 1);
-      PageId p2 = new HeapPageId(empty.getId(), 2);
+    this.p2 = new HeapPageId(empty.getId(), 2);
     this.tid1 = new TransactionId();
     this.tid2 = new TransactionId();
     this.rand = new Random();
@@ -219,6 +223,40 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Three transactions wait for each other in a cycle through the buffer
+   * pool: t1 waits for t2, t2 for t3 and t3 for t1. Only the youngest, t3,
+   * is aborted, after which t2 gets its lock and t1 keeps waiting for t2.
+   */
+  @Test public void testYoungestAborted() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    LockGrabber lg2 = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    LockGrabber lg3 = startGrabber(tid3, p2, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertTrue(lg1.acquired() && lg2.acquired() && lg3.acquired());
+
+    LockGrabber lg3Wait = startGrabber(tid3, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg1Wait = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    // closes the cycle
+    LockGrabber lg2Wait = startGrabber(tid2, p2, Permissions.READ_WRITE);
+    lg3Wait.join(WAIT_INTERVAL * 5);
+    lg2Wait.join(WAIT_INTERVAL * 5);
+
+    assertNotNull(lg3Wait.getError());
+    assertTrue(lg2Wait.acquired());
+    assertFalse(lg1Wait.acquired());
+    assertNull(lg1Wait.getError());
+    assertEquals(1, bp.getDeadlocksDetected());
+
+    bp.transactionComplete(tid2);
+    lg1Wait.join(WAIT_INTERVAL * 5);
+    assertTrue(lg1Wait.acquired());
+    bp.transactionComplete(tid1);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.StringAggregator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    private static void mergeAll(Aggregator agg, OpIterator input) throws Exception {
+        input.open();
+        while (input.hasNext()) {
+            agg.mergeTupleIntoGroup(input.next());
+        }
+        input.close();
+    }
+
+    /**
+     * Spilling groups to disk gives the same results as aggregating in
+     * memory, including when the partitions have to be split again
+     */
+    @Test public void spillMatchesInMemory() throws Exception {
+        int[] data = SystemTestUtil.randomTuples(new Random(3), 20000, 1 << 19, 5000);
+        for (Aggregator.Op op : OPS) {
+            IntegerAggregator inMemory = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+            mergeAll(inMemory, TestUtil.createTupleList(2, data));
+            List<String> expected = SystemTestUtil.sortedRows(inMemory.iterator());
+            assertTrue(expected.size() > 4000);
+            assertEquals(0, inMemory.getSpills());
+
+            for (int maxGroups : new int[]{1000, 10}) {
+                IntegerAggregator spilled = new IntegerAggregator(0, Type.INT_TYPE, 1, op, maxGroups);
+                mergeAll(spilled, TestUtil.createTupleList(2, data));
+                assertTrue(spilled.getSpills() > 0);
+                assertEquals(op + " " + maxGroups, expected, SystemTestUtil.sortedRows(spilled.iterator()));
+            }
+        }
+    }
+
+    /**
+     * Non-INT group values spill through the Field keyed map
+     */
+    @Test public void stringGroups() throws Exception {
+        Random random = new Random(5);
+        Object[] data = new Object[3000 * 2];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = "g" + random.nextInt(800);
+            data[2 * i + 1] = "v" + i;
+        }
+        StringAggregator inMemory = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+        StringAggregator spilled = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT, 50);
+        mergeAll(inMemory, TestUtil.createTupleList(2, data));
+        mergeAll(spilled, TestUtil.createTupleList(2, data));
+        assertTrue(spilled.getSpills() > 0);
+        assertEquals(SystemTestUtil.sortedRows(inMemory.iterator()), SystemTestUtil.sortedRows(spilled.iterator()));
+    }
+
+    /**
+     * @return the number of spill files in the temporary directory
+     */
+    private static int spillFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list((dir, name) -> name.startsWith("spill"));
+        return names == null ? 0 : names.length;
+    }
+
+    /**
+     * Merging an aggregator that has spilled picks up its spilled groups and
+     * deletes its spill files
+     */
+    @Test public void mergeSpilled() throws Exception {
+        int before = spillFiles();
+        Random random = new Random(9);
+        int[] left = SystemTestUtil.randomTuples(random, 4000, 1 << 19, 2000);
+        int[] right = SystemTestUtil.randomTuples(random, 4000, 1 << 19, 2000);
+        IntegerAggregator expected = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+        mergeAll(expected, TestUtil.createTupleList(2, left));
+        mergeAll(expected, TestUtil.createTupleList(2, right));
+
+        IntegerAggregator a = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG, 300);
+        IntegerAggregator b = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG, 300);
+        mergeAll(a, TestUtil.createTupleList(2, left));
+        mergeAll(b, TestUtil.createTupleList(2, right));
+        assertTrue(b.getSpills() > 0);
+        a.merge(b);
+        assertEquals(SystemTestUtil.sortedRows(expected.iterator()), SystemTestUtil.sortedRows(a.iterator()));
+        assertEquals(before, spillFiles());
+    }
+
+    /**
+     * The Aggregate operator passes its group budget on and can be rewound
+     * after spilling
+     */
+    @Test public void aggregateOperator() throws Exception {
+        int[] data = SystemTestUtil.randomTuples(new Random(13), 10000, 1 << 19, 3000);
+        Aggregate expected = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.SUM);
+        Aggregate spilled = new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.SUM, 100);
+        List<String> rows = SystemTestUtil.sortedRows(expected);
+
+        spilled.open();
+        List<String> actual = new ArrayList<>();
+        while (spilled.hasNext()) {
+            actual.add(spilled.next().toString());
+        }
+        Collections.sort(actual);
+        assertEquals(rows, actual);
+        spilled.rewind();
+        int count = 0;
+        while (spilled.hasNext()) {
+            spilled.next();
+            count++;
+        }
+        assertEquals(rows.size(), count);
+        spilled.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashAggregatorTest.class);
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class HeapPageLazyTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * getPageData returns the bytes the page was built from, and building the
+     * page never touches the caller's array
+     */
+    @Test public void roundTrip() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        assertArrayEquals(data, page.getPageData());
+
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertFalse(Arrays.equals(data, page.getPageData()));
+    }
+
+    /**
+     * Tuples handed out by the iterator keep their values when the page
+     * reuses their slot
+     */
+    @Test public void copyOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        int before = ((IntField) first.getField(0)).getValue();
+
+        page.deleteTuple(first);
+        Tuple replacement = Utility.getHeapTuple(before + 1, 2);
+        page.insertTuple(replacement);
+        assertEquals(first.getRecordId(), replacement.getRecordId());
+
+        assertEquals(before, ((IntField) first.getField(0)).getValue());
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(before + 1, ((IntField) it.next().getField(0)).getValue());
+    }
+
+    /**
+     * Setting a field of a page tuple changes the tuple, not the page
+     */
+    @Test public void setFieldDetaches() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple t = page.iterator().next();
+        int second = ((IntField) t.getField(1)).getValue();
+
+        t.setField(0, new IntField(-5));
+        assertEquals(-5, ((IntField) t.getField(0)).getValue());
+        assertEquals(second, ((IntField) t.getField(1)).getValue());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageLazyTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class HeapPageVarcharTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[]{"id", "name"});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new VarcharField(name));
+        return t;
+    }
+
+    /**
+     * Insert tuples until the page is full
+     *
+     * @return the number of tuples inserted
+     */
+    private static int fill(HeapPage page, int firstId) {
+        int n = 0;
+        while (true) {
+            try {
+                page.insertTuple(tuple(firstId + n, "name" + (firstId + n)));
+            } catch (DbException e) {
+                return n;
+            }
+            n++;
+        }
+    }
+
+    /**
+     * Short strings take only the bytes they need, so many more of them fit
+     * on a page than with STRING_TYPE
+     */
+    @Test public void packsShortStrings() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int fixedPerPage = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(page.getNumEmptySlots() > 0);
+        int n = fill(page, 0);
+        assertTrue(n > 3 * fixedPerPage);
+
+        Iterator<Tuple> it = new HeapPage(pid, page.getPageData()).iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getInt(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted slots are reused, the space of deleted records is reclaimed by
+     * compaction, and the surviving tuples keep their RecordIds
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int n = fill(page, 0);
+        List<Tuple> all = new ArrayList<>();
+        page.iterator().forEachRemaining(all::add);
+        for (int i = 0; i < n; i += 2) {
+            page.deleteTuple(all.get(i));
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertTrue(page.isSlotUsed(1));
+
+        // 新元组比原来的长，只有整理记录区后才放得下
+        Tuple longer = tuple(-1, "a much longer name than before");
+        page.insertTuple(longer);
+        assertEquals(0, longer.getRecordId().getTupleNumber());
+        assertTrue(fill(page, n) > 0);
+
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int id = t.getInt(0);
+            if (id >= 0 && id < n) {
+                assertEquals(1, id % 2);
+                assertEquals(id, t.getRecordId().getTupleNumber());
+                assertEquals("name" + id, ((StringField) t.getField(1)).getValue());
+            }
+        }
+        // 删除前取出的元组不受整理影响
+        assertEquals("name1", ((StringField) all.get(1).getField(1)).getValue());
+    }
+
+    /**
+     * Deleting every tuple leaves an empty page
+     */
+    @Test public void deleteAll() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int empty = page.getNumEmptySlots();
+        fill(page, 0);
+        List<Tuple> all = new ArrayList<>();
+        page.iterator().forEachRemaining(all::add);
+        for (Tuple t : all) {
+            page.deleteTuple(t);
+        }
+        assertFalse(page.iterator().hasNext());
+        assertEquals(empty, page.getNumEmptySlots());
+        assertFalse(new HeapPage(pid, page.getPageData()).iterator().hasNext());
+    }
+
+    /**
+     * HeapFileEncoder writes VARCHAR tables in the slotted layout
+     */
+    @Test public void encoder() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        int rows = 2000;
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                bw.write(i + ",v" + i + "\n");
+            }
+        }
+        File data = File.createTempFile("varchar", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE});
+
+        HeapFile hf = Utility.openHeapFile(2, "t", data, TD);
+        int fixedPerPage = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        int fixedPages = (rows + fixedPerPage - 1) / fixedPerPage;
+        assertTrue(hf.numPages() * 4 < fixedPages);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(i, t.getInt(0));
+            assertEquals("v" + i, ((StringField) t.getField(1)).getValue());
+            i++;
+        }
+        assertEquals(rows, i);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageVarcharTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinOptimizer.JoinAlgorithm;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    private TransactionId tid;
+    private BTreeFile index;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 2000, 500, null, null, 0);
+        // 换成带字段名的TupleDesc，优化器按名字查找连接字段
+        index = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(index, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Every supported predicate gives the same rows as a nested loop join
+     * over a scan of the table, with one lookup per outer tuple
+     */
+    @Test public void matchesNestedLoop() throws Exception {
+        Random random = new Random(7);
+        int[] outer = new int[40];
+        for (int i = 0; i < outer.length; i++) {
+            outer[i] = random.nextInt(520) - 10;
+        }
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            Join expected = new Join(pred, TestUtil.createTupleList(1, outer),
+                    new SeqScan(tid, index.getId(), "t"));
+            IndexNestedLoopJoin join = new IndexNestedLoopJoin(tid, pred,
+                    TestUtil.createTupleList(1, outer), index.getId(), "t");
+            List<String> rows = SystemTestUtil.sortedRows(expected);
+            assertEquals(op.toString(), rows, SystemTestUtil.sortedRows(join));
+
+            join.open();
+            while (join.hasNext()) {
+                join.next();
+            }
+            assertEquals(outer.length, join.getLookups());
+            join.rewind();
+            assertEquals(0, join.getLookups());
+            join.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void notKeyField() {
+        new IndexNestedLoopJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                TestUtil.createTupleList(1, new int[]{1}), index.getId(), "t");
+    }
+
+    /**
+     * The cost model picks the index join for a small outer input but not
+     * for a large one; joins on a field that is not the key never get it
+     */
+    @Test public void chooseAlgorithm() throws Exception {
+        File f = File.createTempFile("empty", ".dat");
+        f.deleteOnExit();
+        BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 1000);
+        BTreeFile big = new BTreeFile(f, 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(big.getId(), "b");
+        JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+        LogicalJoinNode onKey = new LogicalJoinNode("a", "b", "x", "c0", Predicate.Op.EQUALS);
+        LogicalJoinNode notKey = new LogicalJoinNode("a", "b", "x", "c1", Predicate.Op.EQUALS);
+
+        assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP, jo.chooseJoinAlgorithm(onKey, 5, 100000, 1e3, 1e6));
+        assertTrue(jo.chooseJoinAlgorithm(onKey, 100000, 100000, 1e6, 1e6) != JoinAlgorithm.INDEX_NESTED_LOOP);
+        assertEquals(JoinAlgorithm.HASH, jo.chooseJoinAlgorithm(notKey, 5, 100000, 1e3, 1e6));
+    }
+
+    /**
+     * instantiateJoin looks through the filters over the table's scan and
+     * applies them above the index join
+     */
+    @Test public void instantiateOverFilter() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 30, 500, null, null, "c");
+        LogicalJoinNode lj = new LogicalJoinNode("a", "t", "c0", "c0", Predicate.Op.EQUALS)
+                .withAlgorithm(JoinAlgorithm.INDEX_NESTED_LOOP);
+        Predicate keep = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(250));
+
+        OpIterator plan = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "a"),
+                new Filter(keep, new SeqScan(tid, index.getId(), "t")));
+        assertTrue(plan instanceof Filter);
+        assertTrue(((Filter) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+
+        Join expected = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, outer.getId(), "a"),
+                new Filter(keep, new SeqScan(tid, index.getId(), "t")));
+        assertEquals(SystemTestUtil.sortedRows(expected), SystemTestUtil.sortedRows(plan));
+
+        // 内层不是表的扫描时退回默认算法
+        OpIterator fallback = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "a"),
+                new SeqScan(tid, outer.getId(), "t"));
+        assertTrue(!(fallback instanceof IndexNestedLoopJoin));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,258 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class JoinEnumerationTest extends SimpleDbTestBase {
+
+    private static final int IO_COST = 101;
+
+    private LogicalPlan plan;
+    private Map<String, TableStats> stats;
+    private Map<String, Double> filterSelectivities;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        plan = new LogicalPlan();
+        stats = new HashMap<>();
+        filterSelectivities = new HashMap<>();
+    }
+
+    /**
+     * @return the tuples of the new table
+     */
+    private List<List<Integer>> addTable(String name, int columns, int rows) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, name);
+        plan.addScan(f.getId(), name);
+        stats.put(name, new TableStats(f.getId(), IO_COST));
+        filterSelectivities.put(name, 1.0);
+        return tuples;
+    }
+
+    /**
+     * Check that every join after the first joins a table already in the
+     * plan, and that every join is used once
+     */
+    private static void assertLeftDeep(List<LogicalJoinNode> nodes, List<LogicalJoinNode> order) {
+        assertEquals(nodes.size(), order.size());
+        assertEquals(new HashSet<>(nodes), new HashSet<>(order));
+        Set<String> joined = new HashSet<>();
+        for (LogicalJoinNode j : order) {
+            assertTrue(order.toString(), joined.isEmpty() || joined.contains(j.t1Alias)
+                    || joined.contains(j.t2Alias));
+            joined.add(j.t1Alias);
+            joined.add(j.t2Alias);
+        }
+    }
+
+    /**
+     * A twelve-way star join, where every set of joins is connected through
+     * the fact table
+     */
+    @Test(timeout = 20000) public void starSchema() throws Exception {
+        addTable("star_fact", 13, 20000);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i <= 12; i++) {
+            addTable("star_d" + i, 2, 10 * i);
+            nodes.add(new LogicalJoinNode("star_fact", "star_d" + i, "c" + i, "c0", Predicate.Op.EQUALS));
+        }
+        List<LogicalJoinNode> order = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities,
+                false);
+        assertLeftDeep(nodes, order);
+    }
+
+    @After public void tearDown() {
+        JoinOptimizer.setDpJoinLimit(JoinOptimizer.DEFAULT_DP_JOIN_LIMIT);
+        JoinOptimizer.setPlanningBudget(JoinOptimizer.DEFAULT_PLANNING_BUDGET);
+    }
+
+    /**
+     * A chain of forty joins has only as many connected sets as pairs of
+     * joins, far fewer than its subsets
+     */
+    @Test(timeout = 20000) public void longChain() throws Exception {
+        JoinOptimizer.setDpJoinLimit(Long.SIZE);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        addTable("chain_t0", 2, 50);
+        for (int i = 1; i <= 40; i++) {
+            addTable("chain_t" + i, 2, 50 + i);
+            nodes.add(new LogicalJoinNode("chain_t" + (i - 1), "chain_t" + i, "c1", "c0", Predicate.Op.EQUALS));
+        }
+        List<LogicalJoinNode> order = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities,
+                false);
+        assertLeftDeep(nodes, order);
+    }
+
+    /**
+     * A star of thirty joins is past the limit for dynamic programming and is
+     * ordered greedily, within the planning budget
+     */
+    @Test(timeout = 20000) public void greedyStar() throws Exception {
+        JoinOptimizer.setPlanningBudget(50);
+        addTable("gstar_fact", 31, 5000);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            addTable("gstar_d" + i, 2, 5 * i);
+            nodes.add(new LogicalJoinNode("gstar_fact", "gstar_d" + i, "c" + i, "c0", Predicate.Op.EQUALS));
+        }
+        assertTrue(nodes.size() > JoinOptimizer.getDpJoinLimit());
+        long start = System.currentTimeMillis();
+        List<LogicalJoinNode> order = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities,
+                false);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertLeftDeep(nodes, order);
+    }
+
+    /**
+     * The greedy order keeps intermediate results small by joining the big
+     * table last
+     */
+    @Test public void greedyBigTableLast() throws Exception {
+        JoinOptimizer.setDpJoinLimit(0);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        addTable("gchain_t0", 2, 100);
+        for (int i = 1; i <= 5; i++) {
+            addTable("gchain_t" + i, 2, 100);
+            nodes.add(new LogicalJoinNode("gchain_t" + (i - 1), "gchain_t" + i, "c1", "c0", Predicate.Op.EQUALS));
+        }
+        addTable("gchain_big", 2, 50000);
+        nodes.add(new LogicalJoinNode("gchain_t5", "gchain_big", "c1", "c0", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes, new Random(23));
+        List<LogicalJoinNode> order = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities,
+                false);
+        assertLeftDeep(nodes, order);
+        LogicalJoinNode last = order.get(order.size() - 1);
+        assertTrue(order.toString(), last.t1Alias.equals("gchain_big") || last.t2Alias.equals("gchain_big"));
+    }
+
+    /**
+     * @return true if some join in the order joins two subplans that each
+     *         hold more than one table
+     */
+    private static boolean isBushy(List<LogicalJoinNode> order) {
+        Map<String, Set<String>> subplans = new HashMap<>();
+        for (LogicalJoinNode j : order) {
+            Set<String> left = subplans.getOrDefault(j.t1Alias, Collections.singleton(j.t1Alias));
+            Set<String> right = subplans.getOrDefault(j.t2Alias, Collections.singleton(j.t2Alias));
+            if (left.size() > 1 && right.size() > 1) {
+                return true;
+            }
+            Set<String> joined = new HashSet<>(left);
+            joined.addAll(right);
+            for (String table : joined) {
+                subplans.put(table, joined);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Range joins of small tables grow their inputs, so a chain of them is
+     * cheapest as two pairs joined last
+     */
+    @Test public void bushyRangeChain() throws Exception {
+        String[] tables = {"brc_a", "brc_b", "brc_c", "brc_d"};
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            addTable(tables[i], 2, 10);
+            if (i > 0) {
+                nodes.add(new LogicalJoinNode(tables[i - 1], tables[i], "c1", "c0", Predicate.Op.LESS_THAN));
+            }
+        }
+        List<LogicalJoinNode> order = new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities,
+                false);
+        assertEquals(nodes.size(), order.size());
+        assertTrue(order.toString(), isBushy(order));
+    }
+
+    /**
+     * A bushy join order is built into a plan that joins the two subplans
+     */
+    @Test public void bushyQuery() throws Exception {
+        List<List<List<Integer>>> tuples = new ArrayList<>();
+        for (String name : new String[]{"bq_a", "bq_b", "bq_c", "bq_d"}) {
+            tuples.add(addTable(name, 2, 10));
+        }
+        int expected = 0;
+        for (List<Integer> a : tuples.get(0)) {
+            for (List<Integer> b : tuples.get(1)) {
+                for (List<Integer> c : tuples.get(2)) {
+                    for (List<Integer> d : tuples.get(3)) {
+                        if (a.get(1) < b.get(0) && b.get(1) < c.get(0) && c.get(1) < d.get(0)) {
+                            expected++;
+                        }
+                    }
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM bq_a, bq_b, bq_c, bq_d "
+                + "WHERE bq_a.c1 < bq_b.c0 AND bq_b.c1 < bq_c.c0 AND bq_c.c1 < bq_d.c0;");
+        OpIterator root = lp.physicalPlan(tid, stats, false);
+        OpIterator join = ((Operator) root).getChildren()[0];
+        for (OpIterator child : ((Operator) join).getChildren()) {
+            assertEquals(4, child.getTupleDesc().numFields());
+        }
+        int rows = 0;
+        root.open();
+        while (root.hasNext()) {
+            root.next();
+            rows++;
+        }
+        root.close();
+        assertEquals(expected, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Joins that leave the tables in two groups cannot be ordered without a
+     * cross product
+     */
+    @Test(expected = ParsingException.class) public void disconnected() throws Exception {
+        for (String name : new String[]{"dis_a", "dis_b", "dis_c", "dis_d"}) {
+            addTable(name, 2, 100);
+        }
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("dis_a", "dis_b", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("dis_c", "dis_d", "c0", "c0", Predicate.Op.EQUALS));
+        new JoinOptimizer(plan, nodes).orderJoins(stats, filterSelectivities, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinEnumerationTest.class);
+    }
+}
@@ -0,0 +1,263 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.index.BTreePageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockManager.LockType;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private static final int WAIT_INTERVAL = 200;
+
+    private LockManager lm;
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2, tid3;
+
+    /**
+     * Acquires a lock in a background thread
+     */
+    private class Acquirer extends Thread {
+        final TransactionId tid;
+        final PageId pid;
+        final LockType type;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Acquirer(TransactionId tid, PageId pid, LockType type) {
+            this.tid = tid;
+            this.pid = pid;
+            this.type = type;
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, pid, type);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private Acquirer startAcquirer(TransactionId tid, LockType type) throws InterruptedException {
+        return startAcquirer(tid, p0, type);
+    }
+
+    private Acquirer startAcquirer(TransactionId tid, PageId pid, LockType type)
+            throws InterruptedException {
+        Acquirer a = new Acquirer(tid, pid, type);
+        a.start();
+        Thread.sleep(WAIT_INTERVAL);
+        return a;
+    }
+
+    @Before
+    public void createLockManager() {
+        lm = new LockManager(5000);
+        p0 = new BTreePageId(1, 1, BTreePageId.LEAF);
+        p1 = new BTreePageId(1, 2, BTreePageId.LEAF);
+        p2 = new BTreePageId(1, 3, BTreePageId.LEAF);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * Shared locks don't block each other
+     */
+    @Test
+    public void sharedShared() throws Exception {
+        lm.acquire(tid1, p0, LockType.SHARED);
+        lm.acquire(tid2, p0, LockType.SHARED);
+        assertTrue(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid2, p0));
+    }
+
+    /**
+     * A writer waits for the reader and proceeds once it releases
+     */
+    @Test
+    public void exclusiveWaits() throws Exception {
+        lm.acquire(tid1, p0, LockType.SHARED);
+        Acquirer writer = startAcquirer(tid2, LockType.EXCLUSIVE);
+        assertFalse(writer.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(WAIT_INTERVAL * 5);
+        assertTrue(writer.acquired);
+        assertTrue(lm.holdsLock(tid2, p0));
+        assertFalse(lm.holdsLock(tid1, p0));
+    }
+
+    /**
+     * The only reader may upgrade at once; an upgrade waits for other readers
+     */
+    @Test
+    public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, LockType.SHARED);
+        lm.acquire(tid1, p0, LockType.EXCLUSIVE);
+        assertTrue(lm.holdsLock(tid1, p0));
+        lm.releaseAll(tid1);
+
+        lm.acquire(tid1, p0, LockType.SHARED);
+        lm.acquire(tid2, p0, LockType.SHARED);
+        Acquirer upgrader = startAcquirer(tid1, LockType.EXCLUSIVE);
+        assertFalse(upgrader.acquired);
+        lm.release(tid2, p0);
+        upgrader.join(WAIT_INTERVAL * 5);
+        assertTrue(upgrader.acquired);
+    }
+
+    /**
+     * Waiters are granted in arrival order, so a later reader doesn't jump
+     * ahead of an earlier writer
+     */
+    @Test
+    public void fifo() throws Exception {
+        lm.acquire(tid1, p0, LockType.EXCLUSIVE);
+        Acquirer writer = startAcquirer(tid2, LockType.EXCLUSIVE);
+        Acquirer reader = startAcquirer(tid3, LockType.SHARED);
+        assertFalse(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid1);
+        writer.join(WAIT_INTERVAL * 5);
+        Thread.sleep(WAIT_INTERVAL);
+        assertTrue(writer.acquired);
+        assertFalse(reader.acquired);
+
+        lm.releaseAll(tid2);
+        reader.join(WAIT_INTERVAL * 5);
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * A request that waits too long aborts its transaction
+     */
+    @Test
+    public void timeout() throws Exception {
+        lm = new LockManager(WAIT_INTERVAL);
+        lm.acquire(tid1, p0, LockType.EXCLUSIVE);
+        try {
+            lm.acquire(tid2, p0, LockType.SHARED);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertFalse(lm.holdsLock(tid2, p0));
+
+        // the abandoned request doesn't block anyone
+        lm.releaseAll(tid1);
+        lm.acquire(tid3, p0, LockType.EXCLUSIVE);
+        assertTrue(lm.holdsLock(tid3, p0));
+    }
+
+    /**
+     * Two transactions waiting on each other's pages: the younger one aborts
+     * at once and the older one gets its lock
+     */
+    @Test
+    public void deadlock() throws Exception {
+        lm = new LockManager();
+        lm.acquire(tid1, p0, LockType.EXCLUSIVE);
+        lm.acquire(tid2, p1, LockType.EXCLUSIVE);
+        Acquirer older = startAcquirer(tid1, p1, LockType.EXCLUSIVE);
+        Acquirer younger = startAcquirer(tid2, p0, LockType.SHARED);
+
+        younger.join(WAIT_INTERVAL * 5);
+        assertTrue(younger.error instanceof TransactionAbortedException);
+        assertFalse(older.acquired);
+        assertEquals(1, lm.getDeadlocksDetected());
+
+        lm.releaseAll(tid2);
+        older.join(WAIT_INTERVAL * 5);
+        assertTrue(older.acquired);
+        assertEquals(1, lm.getDeadlocksDetected());
+    }
+
+    /**
+     * The youngest transaction is aborted even when an older one closes the
+     * cycle
+     */
+    @Test
+    public void deadlockVictimIsYoungest() throws Exception {
+        lm = new LockManager();
+        lm.acquire(tid1, p0, LockType.SHARED);
+        lm.acquire(tid3, p0, LockType.SHARED);
+        Acquirer young = startAcquirer(tid3, LockType.EXCLUSIVE);
+        Acquirer old = startAcquirer(tid1, LockType.EXCLUSIVE);
+
+        young.join(WAIT_INTERVAL * 5);
+        assertTrue(young.error instanceof TransactionAbortedException);
+        assertEquals(1, lm.getDeadlocksDetected());
+
+        lm.releaseAll(tid3);
+        old.join(WAIT_INTERVAL * 5);
+        assertTrue(old.acquired);
+    }
+
+    /**
+     * One request closing two cycles at once: both are broken, not just the
+     * first one found
+     */
+    @Test
+    public void twoCyclesThroughOneWaiter() throws Exception {
+        lm = new LockManager();
+        lm.acquire(tid2, p0, LockType.SHARED);
+        lm.acquire(tid3, p0, LockType.SHARED);
+        lm.acquire(tid1, p1, LockType.EXCLUSIVE);
+        lm.acquire(tid1, p2, LockType.EXCLUSIVE);
+        Acquirer a2 = startAcquirer(tid2, p1, LockType.SHARED);
+        Acquirer a3 = startAcquirer(tid3, p2, LockType.SHARED);
+        Acquirer a1 = startAcquirer(tid1, p0, LockType.EXCLUSIVE);
+
+        a2.join(WAIT_INTERVAL * 5);
+        a3.join(WAIT_INTERVAL * 5);
+        assertTrue(a2.error instanceof TransactionAbortedException);
+        assertTrue(a3.error instanceof TransactionAbortedException);
+        assertEquals(2, lm.getDeadlocksDetected());
+
+        lm.releaseAll(tid2);
+        lm.releaseAll(tid3);
+        a1.join(WAIT_INTERVAL * 5);
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * Waiting behind a waiter is not a deadlock
+     */
+    @Test
+    public void noFalseDeadlock() throws Exception {
+        lm = new LockManager();
+        lm.acquire(tid1, p0, LockType.EXCLUSIVE);
+        Acquirer a2 = startAcquirer(tid2, LockType.SHARED);
+        Acquirer a3 = startAcquirer(tid3, LockType.SHARED);
+        assertEquals(0, lm.getDeadlocksDetected());
+
+        lm.releaseAll(tid1);
+        a2.join(WAIT_INTERVAL * 5);
+        a3.join(WAIT_INTERVAL * 5);
+        assertTrue(a2.acquired);
+        assertTrue(a3.acquired);
+        assertEquals(0, lm.getDeadlocksDetected());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
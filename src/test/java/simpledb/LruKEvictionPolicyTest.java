@@ -0,0 +1,97 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.index.BTreePageId;
+import simpledb.storage.LruKEvictionPolicy;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LruKEvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new BTreePageId(1, pgNo, BTreePageId.LEAF);
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy with k = 1, i.e. plain LRU
+     */
+    @Test
+    public void lru() {
+        LruKEvictionPolicy policy = new LruKEvictionPolicy(1);
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(3));
+        policy.recordAccess(pid(1));
+
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+        policy.remove(pid(2));
+        assertEquals(pid(3), policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Pages touched once by a scan go before pages referenced twice
+     */
+    @Test
+    public void scanResistant() {
+        LruKEvictionPolicy policy = new LruKEvictionPolicy();
+        // hot pages, referenced twice with other pages in between
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+
+        // a scan touches every other page exactly once
+        for (int i = 10; i < 20; i++) {
+            policy.recordAccess(pid(i));
+        }
+
+        for (int i = 10; i < 20; i++) {
+            assertEquals(pid(i), policy.chooseVictim(p -> true));
+            policy.remove(pid(i));
+        }
+        assertEquals(pid(1), policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Back-to-back references to one page only count once
+     */
+    @Test
+    public void correlatedReferences() {
+        LruKEvictionPolicy policy = new LruKEvictionPolicy();
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(1));
+
+        // page 2 still has a single reference, page 1 has two
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+    }
+
+    /**
+     * Pages that cannot be evicted (e.g. dirty ones) are skipped
+     */
+    @Test
+    public void skipsPinnedPages() {
+        LruKEvictionPolicy policy = new LruKEvictionPolicy();
+        policy.recordAccess(pid(1));
+        policy.recordAccess(pid(2));
+        policy.recordAccess(pid(3));
+
+        assertEquals(pid(3), policy.chooseVictim(p -> !p.equals(pid(1)) && !p.equals(pid(2))));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LruKEvictionPolicyTest.class);
+    }
+}
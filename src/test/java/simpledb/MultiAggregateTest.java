@@ -0,0 +1,162 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.HashAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class MultiAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    /**
+     * The rows of one aggregate per (a, b) group, computed directly
+     */
+    private static Map<List<Integer>, List<Integer>> expected(int[] data) {
+        Map<List<Integer>, List<Integer>> values = new HashMap<>();
+        for (int i = 0; i < data.length; i += 3) {
+            values.computeIfAbsent(Arrays.asList(data[i], data[i + 1]), k -> new ArrayList<>())
+                    .add(data[i + 2]);
+        }
+        Map<List<Integer>, List<Integer>> results = new HashMap<>();
+        for (Map.Entry<List<Integer>, List<Integer>> e : values.entrySet()) {
+            long sum = 0;
+            for (int v : e.getValue()) {
+                sum += v;
+            }
+            results.put(e.getKey(), Arrays.asList((int) sum, Collections.min(e.getValue()),
+                    Collections.max(e.getValue()), (int) (sum / e.getValue().size()), e.getValue().size()));
+        }
+        return results;
+    }
+
+    /**
+     * Every aggregate over a two-column key comes out of one operator in one
+     * pass, with or without spilling
+     */
+    @Test public void compositeGroups() throws Exception {
+        int[] data = SystemTestUtil.randomTuples(new Random(21), 20000, 1 << 15, 40, 30);
+        Map<List<Integer>, List<Integer>> expected = expected(data);
+        int[] afields = {2, 2, 2, 2, 2};
+
+        for (int maxGroups : new int[]{HashAggregator.DEFAULT_MAX_GROUPS, 50}) {
+            Aggregate agg = new Aggregate(TestUtil.createTupleList(3, data), afields, new int[]{0, 1},
+                    OPS, maxGroups);
+            assertEquals(7, agg.getTupleDesc().numFields());
+            agg.open();
+            int rows = 0;
+            while (agg.hasNext()) {
+                List<Integer> row = SystemTestUtil.tupleToList(agg.next());
+                assertEquals(expected.get(row.subList(0, 2)), row.subList(2, 7));
+                rows++;
+            }
+            agg.close();
+            assertEquals(expected.size(), rows);
+        }
+    }
+
+    /**
+     * Tuple-at-a-time and batch merging agree, including the swap of group
+     * column order
+     */
+    @Test public void tuplesMatchBatches() throws Exception {
+        int[] data = SystemTestUtil.randomTuples(new Random(22), 5000, 1 << 15, 40, 30);
+        HashAggregator tuples = new HashAggregator(new int[]{1, 0}, new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new int[]{2, HashAggregator.COUNT_ROWS}, new Type[]{Type.INT_TYPE, null},
+                new Aggregator.Op[]{Aggregator.Op.MAX, Aggregator.Op.COUNT}, 100);
+        OpIterator input = TestUtil.createTupleList(3, data);
+        input.open();
+        while (input.hasNext()) {
+            tuples.mergeTupleIntoGroup(input.next());
+        }
+        input.close();
+        assertTrue(tuples.getSpills() > 0);
+
+        Aggregate batches = new Aggregate(TestUtil.createTupleList(3, data), new int[]{2, -1}, new int[]{1, 0},
+                new Aggregator.Op[]{Aggregator.Op.MAX, Aggregator.Op.COUNT});
+        assertEquals(SystemTestUtil.sortedRows(tuples.iterator()), SystemTestUtil.sortedRows(batches));
+    }
+
+    /**
+     * Without grouping, several aggregates give one row, and COUNT(*) is
+     * named after its star
+     */
+    @Test public void noGrouping() throws Exception {
+        int[] data = {1, 10, 2, 20, 3, 30};
+        Aggregate agg = new Aggregate(TestUtil.createTupleList(2, data), new int[]{HashAggregator.COUNT_ROWS, 1, 0},
+                new int[0], new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX});
+        assertEquals(Aggregator.NO_GROUPING, agg.groupField());
+        assertEquals("count (*)", agg.aggregateFieldName(0));
+        agg.open();
+        assertEquals(Arrays.asList(3, 60, 3), SystemTestUtil.tupleToList(agg.next()));
+        assertTrue(!agg.hasNext());
+        agg.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void stringSum() {
+        new HashAggregator(new int[0], new Type[0], new int[]{0}, new Type[]{Type.STRING_TYPE},
+                new Aggregator.Op[]{Aggregator.Op.SUM}, 10);
+    }
+
+    /**
+     * The parser accepts several GROUP BY fields and aggregates, and the
+     * select list can name them in any order
+     */
+    @Test public void query() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 20, null, tuples, "c");
+        Database.getCatalog().addTable(table, "multi_agg");
+        Map<List<Integer>, List<Integer>> values = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            values.computeIfAbsent(Arrays.asList(t.get(1), t.get(0)), k -> new ArrayList<>()).add(t.get(2));
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT COUNT(*), multi_agg.c1, MAX(multi_agg.c2), multi_agg.c0 FROM multi_agg "
+                        + "GROUP BY multi_agg.c1, multi_agg.c0;");
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        plan.open();
+        int rows = 0;
+        while (plan.hasNext()) {
+            List<Integer> row = SystemTestUtil.tupleToList(plan.next());
+            List<Integer> group = values.get(Arrays.asList(row.get(1), row.get(3)));
+            assertEquals(group.size(), (int) row.get(0));
+            assertEquals(Collections.max(group), row.get(2));
+            rows++;
+        }
+        plan.close();
+        assertEquals(values.size(), rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiAggregateTest.class);
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /**
+     * Shuffled tuples (key, position) where every key appears twice
+     */
+    private static int[] shuffled(int n, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = i / 2;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+        int[] data = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = keys[i];
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    /**
+     * Check that the output is sorted on field 0 and that equal keys keep
+     * their input order
+     *
+     * @return the number of tuples
+     */
+    private static int checkSorted(OpIterator it, boolean asc) throws Exception {
+        int count = 0;
+        Tuple prev = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (prev != null) {
+                int cmp = Integer.compare(prev.getInt(0), t.getInt(0));
+                assertTrue(asc ? cmp <= 0 : cmp >= 0);
+                if (cmp == 0) {
+                    assertTrue(prev.getInt(1) < t.getInt(1));
+                }
+            }
+            prev = t;
+            count++;
+        }
+        return count;
+    }
+
+    @Test public void inMemory() throws Exception {
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(2, shuffled(1000, 1)));
+        orderBy.open();
+        assertEquals(0, orderBy.getNumRuns());
+        assertEquals(1000, checkSorted(orderBy, true));
+        orderBy.close();
+    }
+
+    /**
+     * An input bigger than the memory budget is spilled in runs and merged,
+     * and a rewind reads the merged output again
+     */
+    @Test public void external() throws Exception {
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(2, shuffled(5000, 2)), 700);
+        orderBy.open();
+        assertEquals(7, orderBy.getNumRuns());
+        assertEquals(5000, checkSorted(orderBy, true));
+        orderBy.rewind();
+        assertEquals(5000, checkSorted(orderBy, true));
+        orderBy.close();
+    }
+
+    @Test public void externalDescending() throws Exception {
+        OrderBy orderBy = new OrderBy(0, false, TestUtil.createTupleList(2, shuffled(3000, 3)), 256);
+        orderBy.open();
+        assertTrue(orderBy.getNumRuns() > 1);
+        assertEquals(3000, checkSorted(orderBy, false));
+        orderBy.close();
+    }
+
+    /**
+     * More runs than can be merged at once are merged in several passes
+     */
+    @Test public void multiPassMerge() throws Exception {
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(2, shuffled(8000, 4)), 50);
+        orderBy.open();
+        assertEquals(160, orderBy.getNumRuns());
+        assertEquals(8000, checkSorted(orderBy, true));
+        orderBy.close();
+    }
+
+    /**
+     * Merge passes rewrite each tuple once per round, not once per pass
+     */
+    @Test public void mergeRoundsBoundRewrites() throws Exception {
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(2, shuffled(20000, 6)), 10);
+        orderBy.open();
+        assertEquals(2000, orderBy.getNumRuns());
+        // 2000段需要两轮：第一轮整轮，第二轮只合并需要的组
+        assertTrue(orderBy.getNumRewrittenTuples() <= 2 * 20000);
+        assertEquals(20000, checkSorted(orderBy, true));
+        orderBy.rewind();
+        assertEquals(20000, checkSorted(orderBy, true));
+        orderBy.close();
+    }
+
+    /**
+     * Rewinding or closing a partly read external sort closes the runs it
+     * had open
+     */
+    @Test public void rewindClosesRuns() throws Exception {
+        File fds = new File("/proc/self/fd");
+        Assume.assumeTrue(fds.isDirectory());
+        // 每个有序段有好几页，读了第一页的段仍然打开着
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(2, shuffled(20000, 7)), 2000);
+        orderBy.open();
+        assertEquals(10, orderBy.getNumRuns());
+        int before = fds.list().length;
+        for (int i = 0; i < 50; i++) {
+            orderBy.next();
+            orderBy.rewind();
+        }
+        orderBy.next();
+        orderBy.close();
+        assertTrue(fds.list().length <= before);
+    }
+
+    /**
+     * Runs of a string key are written in the page format and read back
+     */
+    @Test public void externalStrings() throws Exception {
+        int n = 2000;
+        Object[] data = new Object[n];
+        int[] perm = shuffled(n, 5);
+        for (int i = 0; i < n; i++) {
+            data[i] = String.format("k%05d", perm[2 * i]);
+        }
+        OrderBy orderBy = new OrderBy(0, true, TestUtil.createTupleList(1, data), 300);
+        orderBy.open();
+        assertTrue(orderBy.getNumRuns() > 1);
+        String prev = "";
+        int count = 0;
+        while (orderBy.hasNext()) {
+            String s = ((StringField) orderBy.next().getField(0)).getValue();
+            assertTrue(prev.compareTo(s) <= 0);
+            prev = s;
+            count++;
+        }
+        assertEquals(n, count);
+        assertFalse(orderBy.hasNext());
+        orderBy.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
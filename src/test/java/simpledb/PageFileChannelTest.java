@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.PageFileChannel;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageFileChannelTest extends SimpleDbTestBase {
+
+    private File file;
+    private PageFileChannel channel;
+
+    private static byte[] bytes(int from, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (from + i);
+        }
+        return data;
+    }
+
+    private void append(byte[] data) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(data);
+        }
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("pagefile", ".dat");
+        file.deleteOnExit();
+        append(bytes(0, 100));
+        // small regions so that some reads straddle two of them
+        channel = new PageFileChannel(file, 32);
+    }
+
+    @After
+    public void closeChannel() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads inside one region and across two regions
+     */
+    @Test
+    public void read() throws IOException {
+        assertArrayEquals(bytes(0, 16), channel.read(0, 16));
+        assertArrayEquals(bytes(40, 20), channel.read(40, 20));
+        assertArrayEquals(bytes(24, 16), channel.read(24, 16));
+    }
+
+    /**
+     * Slices are read-only views of the file
+     */
+    @Test
+    public void slice() throws IOException {
+        ByteBuffer buf = channel.slice(8, 8);
+        assertEquals(8, buf.remaining());
+        assertEquals((byte) 8, buf.get(0));
+        assertEquals(true, buf.isReadOnly());
+    }
+
+    /**
+     * Bytes appended after the file was mapped can be read
+     */
+    @Test
+    public void fileGrows() throws IOException {
+        assertArrayEquals(bytes(96, 4), channel.read(96, 4));
+        append(bytes(100, 60));
+        assertArrayEquals(bytes(100, 20), channel.read(100, 20));
+        assertArrayEquals(bytes(140, 20), channel.read(140, 20));
+    }
+
+    /**
+     * A closed channel reopens the file on the next read
+     */
+    @Test
+    public void reopenAfterClose() throws IOException {
+        assertArrayEquals(bytes(0, 16), channel.read(0, 16));
+        channel.close();
+        assertArrayEquals(bytes(0, 16), channel.read(0, 16));
+        assertArrayEquals(bytes(24, 16), channel.read(24, 16));
+    }
+
+    /**
+     * Positional writes are visible to later reads, including reads of
+     * regions that were mapped before the write
+     */
+    @Test
+    public void write() throws IOException {
+        assertArrayEquals(bytes(0, 16), channel.read(0, 16));
+        channel.write(4, bytes(50, 8));
+        assertArrayEquals(bytes(50, 8), channel.read(4, 8));
+        assertArrayEquals(bytes(12, 4), channel.read(12, 4));
+    }
+
+    /**
+     * A batch of writes, some adjacent and some past the end of the file
+     */
+    @Test
+    public void batchWrite() throws IOException {
+        SortedMap<Long, byte[]> writes = new TreeMap<>();
+        writes.put(120L, bytes(7, 10));
+        writes.put(10L, bytes(70, 10));
+        writes.put(20L, bytes(80, 10));
+        writes.put(50L, bytes(90, 5));
+        channel.write(writes);
+
+        assertEquals(130, file.length());
+        assertArrayEquals(bytes(70, 20), channel.read(10, 20));
+        assertArrayEquals(bytes(30, 20), channel.read(30, 20));
+        assertArrayEquals(bytes(90, 5), channel.read(50, 5));
+        assertArrayEquals(bytes(7, 10), channel.read(120, 10));
+    }
+
+    /**
+     * Reading past the end of the file fails
+     */
+    @Test
+    public void pastEnd() throws IOException {
+        try {
+            channel.read(90, 20);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileChannelTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.ParallelAggregate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private TransactionId tid;
+    private ForkJoinPool pool;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 30000, 100, null, null);
+        assertTrue(table.numPages() > 2 * ParallelAggregate.MORSEL_PAGES);
+        tid = new TransactionId();
+        pool = new ForkJoinPool(4);
+    }
+
+    @After public void tearDown() throws Exception {
+        pool.shutdown();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Filter lessThan50(OpIterator scan) {
+        return new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(50)), scan);
+    }
+
+    /**
+     * Grouped aggregates over a filtered scan match the serial Aggregate
+     */
+    @Test public void groupedMatchesSerial() throws Exception {
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            Aggregate serial = new Aggregate(lessThan50(new SeqScan(tid, table.getId(), "t")), 1, 0, op);
+            ParallelAggregate parallel = new ParallelAggregate(tid, table.getId(), "t",
+                    ParallelAggregateTest::lessThan50, 1, 0, op, pool, 4);
+            assertEquals(serial.getTupleDesc(), parallel.getTupleDesc());
+            assertEquals(serial.getTupleDesc().getFieldName(1), parallel.getTupleDesc().getFieldName(1));
+            assertEquals(SystemTestUtil.sortedRows(serial), SystemTestUtil.sortedRows(parallel));
+        }
+    }
+
+    /**
+     * Without grouping there is one result row over the whole table
+     */
+    @Test public void ungrouped() throws Exception {
+        ParallelAggregate count = new ParallelAggregate(tid, table.getId(), "t",
+                scan -> scan, 0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT, pool, 3);
+        List<String> rows = SystemTestUtil.sortedRows(count);
+        assertEquals(1, rows.size());
+        assertEquals("30000", rows.get(0));
+    }
+
+    /**
+     * A scan of a page range only reads those pages
+     */
+    @Test public void pageRangeScan() throws Exception {
+        int total = 0;
+        for (int start = 0; start < table.numPages(); start += 5) {
+            SeqScan scan = new SeqScan(tid, table.getId(), "t", start, start + 5);
+            total += SystemTestUtil.sortedRows(scan).size();
+        }
+        assertEquals(30000, total);
+        assertEquals(0, SystemTestUtil.sortedRows(
+                new SeqScan(tid, table.getId(), "t", table.numPages(), table.numPages() + 5)).size());
+    }
+
+    /**
+     * The planner aggregates a filtered scan of a big heap file in parallel,
+     * and a small one serially
+     */
+    @Test public void planner() throws Exception {
+        Assume.assumeTrue(ForkJoinPool.commonPool().getParallelism() > 1);
+        HeapFile named = SystemTestUtil.createRandomHeapFile(2, 30000, 100, null, null, "c");
+        Database.getCatalog().addTable(named, "pagg_big");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 100, null, null, "c");
+        Database.getCatalog().addTable(small, "pagg_small");
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT pagg_big.c0, SUM(pagg_big.c1) FROM pagg_big WHERE pagg_big.c1 < 50 GROUP BY pagg_big.c0;");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pagg_big", new TableStats(named.getId(), 1000));
+        OpIterator agg = ((Operator) lp.physicalPlan(tid, stats, false)).getChildren()[0];
+        assertTrue(agg instanceof ParallelAggregate);
+        assertEquals(SystemTestUtil.sortedRows(new Aggregate(lessThan50(new SeqScan(tid, named.getId(), "pagg_big")),
+                1, 0, Aggregator.Op.SUM)), SystemTestUtil.sortedRows(agg));
+
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT COUNT(pagg_small.c1) FROM pagg_small;");
+        agg = ((Operator) lp.physicalPlan(tid, new HashMap<>(), false)).getChildren()[0];
+        assertFalse(agg instanceof ParallelAggregate);
+    }
+
+    /**
+     * The workers share the group budget, spilling their groups past it, and
+     * the result still matches the serial Aggregate
+     */
+    @Test public void workersShareGroupBudget() throws Exception {
+        List<Integer> budgets = Collections.synchronizedList(new ArrayList<>());
+        ParallelAggregate parallel = new ParallelAggregate(tid, table.getId(), "t", scan -> scan,
+                new int[]{1}, new int[]{0}, new Aggregator.Op[]{Aggregator.Op.SUM}, pool, 4, 40) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Aggregator newAggregator(int maxGroups) {
+                budgets.add(maxGroups);
+                return super.newAggregator(maxGroups);
+            }
+        };
+        Aggregate serial = new Aggregate(new SeqScan(tid, table.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        assertEquals(SystemTestUtil.sortedRows(serial), SystemTestUtil.sortedRows(parallel));
+        // 4个线程各10个分组，合并结果的聚合器保留全部40个
+        Collections.sort(budgets);
+        assertEquals(Arrays.asList(10, 10, 10, 10, 40), budgets);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanCache;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+
+    private static final int IO_COST = 101;
+
+    private Map<String, TableStats> stats;
+    private QueryPlanCache cache;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        stats = new HashMap<>();
+        for (String name : new String[]{"qpc_a", "qpc_b", "qpc_c"}) {
+            addTable(name, 200);
+        }
+        cache = Database.getQueryPlanCache();
+    }
+
+    private void addTable(String name, int rows) throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, 100, null, null, "c");
+        Database.getCatalog().addTable(f, name);
+        stats.put(name, new TableStats(f.getId(), IO_COST));
+    }
+
+    private void run(String sql) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static String query(int constant) {
+        return "SELECT * FROM qpc_a, qpc_b, qpc_c WHERE qpc_a.c1 = qpc_b.c0 AND qpc_b.c1 = qpc_c.c0 "
+                + "AND qpc_a.c0 < " + constant + ";";
+    }
+
+    @Test public void normalize() {
+        assertEquals("SELECT * FROM t WHERE t.a = ? AND t.b = ? AND t2.c > ?",
+                QueryPlanCache.normalize("SELECT *  FROM t\n WHERE t.a = 17 AND t.b = 'x y' AND t2.c > 2.5"));
+        assertEquals(QueryPlanCache.normalize("SELECT * FROM t WHERE t.a = 1"),
+                QueryPlanCache.normalize("SELECT * FROM t WHERE t.a = 42"));
+    }
+
+    /**
+     * A query run again with other constants reuses the join order
+     */
+    @Test public void hitWithOtherConstants() throws Exception {
+        run(query(10));
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHits());
+        run(query(90));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Adding a table to the catalog drops the cached orders
+     */
+    @Test public void catalogChange() throws Exception {
+        run(query(10));
+        addTable("qpc_d", 10);
+        run(query(10));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        run(query(10));
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * A table growing well past its old cardinality drops the cached order,
+     * a small change does not
+     */
+    @Test public void statsChange() throws Exception {
+        // 先建好文件，建文件本身会改动catalog
+        HeapFile slightlyBigger = SystemTestUtil.createRandomHeapFile(2, 210, 100, null, null, "c");
+        HeapFile muchBigger = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, null, "c");
+        run(query(10));
+        stats.put("qpc_b", new TableStats(slightlyBigger.getId(), IO_COST));
+        run(query(10));
+        assertEquals(1, cache.getHits());
+
+        stats.put("qpc_b", new TableStats(muchBigger.getId(), IO_COST));
+        run(query(10));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * The least recently used order is evicted when the cache is full
+     */
+    @Test public void evictsLeastRecentlyUsed() {
+        QueryPlanCache small = new QueryPlanCache(2);
+        List<LogicalJoinNode> joins = Arrays.asList(
+                new LogicalJoinNode("qpc_a", "qpc_b", "c1", "c0", Predicate.Op.EQUALS));
+        small.putJoinOrder("q1", joins, stats);
+        small.putJoinOrder("q2", joins, stats);
+        assertNotNull(small.getJoinOrder("q1", stats));
+        small.putJoinOrder("q3", joins, stats);
+        assertEquals(2, small.size());
+        assertNull(small.getJoinOrder("q2", stats));
+        assertEquals(joins, small.getJoinOrder("q1", stats));
+        assertNotNull(small.getJoinOrder("q3", stats));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+    }
+}
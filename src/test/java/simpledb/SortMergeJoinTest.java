@@ -0,0 +1,185 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinOptimizer.JoinAlgorithm;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = {
+            Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+
+    /**
+     * Every supported predicate gives the same rows as a nested loop join,
+     * before and after a rewind
+     */
+    @Test public void matchesNestedLoop() throws Exception {
+        Random random = new Random(11);
+        int[] left = SystemTestUtil.randomTuples(random, 300, 1 << 16, 50);
+        int[] right = SystemTestUtil.randomTuples(random, 200, 1 << 16, 60);
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            Join expected = new Join(pred, TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+            SortMergeJoin join = new SortMergeJoin(pred,
+                    TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+            expected.open();
+            join.open();
+            List<String> rows = SystemTestUtil.remainingSortedRows(expected);
+            assertEquals(op.toString(), rows, SystemTestUtil.remainingSortedRows(join));
+            join.rewind();
+            assertEquals(op.toString(), rows, SystemTestUtil.remainingSortedRows(join));
+            expected.close();
+            join.close();
+        }
+    }
+
+    /**
+     * Inputs that are already sorted on the key are not sorted again, and
+     * string keys are compared as Fields
+     */
+    @Test public void sortedStringInputs() throws Exception {
+        Object[] left = {"a", 1, "b", 2, "b", 3, "d", 4};
+        Object[] right = {"b", 5, "c", 6, "d", 7, "d", 8};
+        OrderBy l = new OrderBy(0, true, TestUtil.createTupleList(2, left));
+        OrderBy r = new OrderBy(0, true, TestUtil.createTupleList(2, right));
+        assertEquals(true, SortMergeJoin.isSortedOn(l, 0));
+        assertEquals(false, SortMergeJoin.isSortedOn(l, 1));
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), l, r);
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            join.next();
+            count++;
+        }
+        // b匹配2×1行，d匹配1×2行
+        assertEquals(4, count);
+        join.close();
+    }
+
+    /**
+     * Range joins stream inputs that were sorted on disk, rewinding the
+     * inner one for each outer row instead of holding it in memory
+     */
+    @Test public void spilledInputs() throws Exception {
+        Random random = new Random(12);
+        int[] left = SystemTestUtil.randomTuples(random, 400, 1 << 16, 100);
+        int[] right = SystemTestUtil.randomTuples(random, 300, 1 << 16, 100);
+        for (Predicate.Op op : OPS) {
+            JoinPredicate pred = new JoinPredicate(0, op, 0);
+            Join expected = new Join(pred, TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+            OrderBy l = new OrderBy(0, true, TestUtil.createTupleList(2, left), 50);
+            OrderBy r = new OrderBy(0, true, TestUtil.createTupleList(2, right), 50);
+            SortMergeJoin join = new SortMergeJoin(pred, l, r);
+            expected.open();
+            join.open();
+            assertTrue(l.getNumRuns() > 0 && r.getNumRuns() > 0);
+            assertEquals(op.toString(), SystemTestUtil.remainingSortedRows(expected),
+                    SystemTestUtil.remainingSortedRows(join));
+            expected.close();
+            join.close();
+        }
+    }
+
+    /**
+     * An OrderBy that counts its rewinds
+     */
+    private static class CountingOrderBy extends OrderBy {
+        private static final long serialVersionUID = 1L;
+        int rewinds = 0;
+
+        CountingOrderBy(OpIterator child, int maxTuples) {
+            super(0, true, child, maxTuples);
+        }
+
+        @Override
+        public void rewind() throws DbException {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    /**
+     * Outer rows that match no inner row are skipped without rewinding the
+     * inner input; outer rows that do match rewind it once each
+     */
+    @Test public void emptyPrefixesSkipRewind() throws Exception {
+        int[] low = new int[100];
+        int[] high = new int[100];
+        for (int i = 0; i < 50; i++) {
+            low[2 * i] = i;
+            low[2 * i + 1] = i;
+            high[2 * i] = 100 + i;
+            high[2 * i + 1] = i;
+        }
+        // LESS_THAN以右侧为外侧，左侧的键都比右侧大，前缀全为空
+        CountingOrderBy inner = new CountingOrderBy(TestUtil.createTupleList(2, high), 10);
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                inner, new OrderBy(0, true, TestUtil.createTupleList(2, low), 10));
+        join.open();
+        assertEquals(0, SystemTestUtil.remainingSortedRows(join).size());
+        assertEquals(0, inner.rewinds);
+        join.close();
+
+        // GREATER_THAN以左侧为外侧，每个左侧元组都匹配整个右侧
+        inner = new CountingOrderBy(TestUtil.createTupleList(2, low), 10);
+        join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+                new OrderBy(0, true, TestUtil.createTupleList(2, high), 10), inner);
+        join.open();
+        assertEquals(50 * 50, SystemTestUtil.remainingSortedRows(join).size());
+        assertEquals(49, inner.rewinds);
+        join.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void notEqualsUnsupported() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                TestUtil.createTupleList(1, new int[]{1}), TestUtil.createTupleList(1, new int[]{1}));
+    }
+
+    /**
+     * The cost model picks the hash join for equi-joins, the sort-merge join
+     * for range joins of large inputs, and a nested loop for a range join
+     * with a single outer tuple
+     */
+    @Test public void chooseAlgorithm() {
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new ArrayList<>());
+        LogicalJoinNode equals = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.EQUALS);
+        LogicalJoinNode less = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.LESS_THAN);
+        LogicalJoinNode notEquals = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.NOT_EQUALS);
+
+        assertEquals(JoinAlgorithm.HASH, jo.chooseJoinAlgorithm(equals, 10000, 10000, 1e5, 1e5));
+        assertEquals(JoinAlgorithm.SORT_MERGE, jo.chooseJoinAlgorithm(less, 10000, 10000, 1e5, 1e5));
+        assertEquals(JoinAlgorithm.NESTED_LOOP, jo.chooseJoinAlgorithm(less, 1, 10000, 1e3, 1e5));
+        assertEquals(JoinAlgorithm.NESTED_LOOP, jo.chooseJoinAlgorithm(notEquals, 10000, 10000, 1e5, 1e5));
+        assertEquals(jo.estimateJoinCost(less, JoinAlgorithm.SORT_MERGE, 10000, 10000, 1e5, 1e5),
+                jo.estimateJoinCost(less, 10000, 10000, 1e5, 1e5), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CloseableIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.SpillFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class SpillFileTest extends SimpleDbTestBase {
+
+    /**
+     * Tuples come back in the order they were added, over several pages
+     */
+    @Test public void roundTrip() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(3);
+        int perPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        int n = perPage * 3 + 7;
+        SpillFile file = new SpillFile(td);
+        for (int i = 0; i < n; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, -i, 2 * i});
+            RecordId rid = t.getRecordId();
+            file.add(t);
+            assertSame(rid, t.getRecordId());
+        }
+        assertEquals(n, file.numTuples());
+
+        for (int pass = 0; pass < 2; pass++) {
+            Iterator<Tuple> it = file.iterator();
+            for (int i = 0; i < n; i++) {
+                Tuple t = it.next();
+                assertEquals(i, t.getInt(0));
+                assertEquals(-i, t.getInt(1));
+                assertEquals(2 * i, t.getInt(2));
+            }
+            assertFalse(it.hasNext());
+        }
+        assertEquals(4, file.numPages());
+        file.close();
+    }
+
+    /**
+     * Variable length tuples are written in the slotted page layout
+     */
+    @Test public void varchar() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.VARCHAR_TYPE, Type.INT_TYPE});
+        SpillFile file = new SpillFile(td);
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new VarcharField("s" + i));
+            t.setField(1, new IntField(i));
+            file.add(t);
+        }
+        int i = 0;
+        for (Tuple t : file) {
+            assertEquals("s" + i, ((StringField) t.getField(0)).getValue());
+            assertEquals(i, t.getInt(1));
+            i++;
+        }
+        assertEquals(1000, i);
+        assertTrue(file.numPages() < 1000 / (BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1)));
+        file.close();
+    }
+
+    /**
+     * An iterator closed before the end returns no more tuples, and the
+     * file can still be read again
+     */
+    @Test public void closeEarly() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        int perPage = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        SpillFile file = new SpillFile(td);
+        for (int i = 0; i < perPage * 2; i++) {
+            file.add(Utility.getHeapTuple(i, 1));
+        }
+        CloseableIterator<Tuple> it = file.iterator();
+        assertEquals(0, it.next().getInt(0));
+        it.close();
+        assertFalse(it.hasNext());
+        it.close();
+
+        it = file.iterator();
+        assertEquals(0, it.next().getInt(0));
+        it.close();
+        file.close();
+    }
+
+    /**
+     * An empty file reads back as no tuples
+     */
+    @Test public void empty() throws Exception {
+        SpillFile file = new SpillFile(Utility.getTupleDesc(1));
+        assertFalse(file.iterator().hasNext());
+        assertEquals(0, file.numPages());
+        file.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillFileTest.class);
+    }
+}
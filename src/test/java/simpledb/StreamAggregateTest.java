@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.execution.StreamAggregate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.SUM, Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.COUNT};
+
+    /**
+     * Random (a, b, value) triples sorted on a, with a in [0, 300) and b in
+     * [0, 5)
+     */
+    private static int[] sortedTuples(int n, Random random) {
+        int[][] rows = new int[n][];
+        for (int i = 0; i < n; i++) {
+            rows[i] = new int[]{random.nextInt(300), random.nextInt(5), random.nextInt(1000)};
+        }
+        Arrays.sort(rows, (r1, r2) -> Integer.compare(r1[0], r2[0]));
+        int[] data = new int[n * 3];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(rows[i], 0, data, 3 * i, 3);
+        }
+        return data;
+    }
+
+    private static List<String> rows(OpIterator it) throws Exception {
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            rows.add(it.next().toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Streaming gives the rows of a hash aggregate, in the order of the
+     * ordered field, whether or not it is the only group field
+     */
+    @Test public void matchesAggregate() throws Exception {
+        int[] data = sortedTuples(10000, new Random(31));
+        int[] afields = {2, 2, 2, 2, 2};
+        for (int[] gfields : new int[][]{{0}, {1, 0}}) {
+            Aggregate expected = new Aggregate(TestUtil.createTupleList(3, data), afields, gfields, OPS);
+            StreamAggregate stream = new StreamAggregate(TestUtil.createTupleList(3, data), afields, gfields,
+                    OPS, 0);
+            List<String> actual = rows(stream);
+            assertEquals(SystemTestUtil.sortedRows(expected), SystemTestUtil.sortedRows(stream));
+
+            // 按有序字段的顺序输出
+            stream.open();
+            int last = Integer.MIN_VALUE;
+            while (stream.hasNext()) {
+                int a = stream.next().getInt(gfields.length - 1);
+                assertTrue(a >= last);
+                last = a;
+            }
+            stream.rewind();
+            assertEquals(actual, rows(stream));
+        }
+    }
+
+    /**
+     * String keys, ordered by an OrderBy below the aggregate
+     */
+    @Test public void stringKeys() throws Exception {
+        Random random = new Random(32);
+        Object[] data = new Object[4000];
+        for (int i = 0; i < data.length; i += 2) {
+            data[i] = "k" + random.nextInt(200);
+            data[i + 1] = "v";
+        }
+        OrderBy sorted = new OrderBy(0, false, TestUtil.createTupleList(2, data));
+        assertTrue(StreamAggregate.isGroupedOn(sorted, 0));
+        assertEquals(SystemTestUtil.sortedRows(
+                new Aggregate(TestUtil.createTupleList(2, data), 1, 0, Aggregator.Op.COUNT)),
+                SystemTestUtil.sortedRows(new StreamAggregate(sorted, 1, 0, Aggregator.Op.COUNT)));
+    }
+
+    /**
+     * The first results come out once a batch of groups is complete, not
+     * after the whole child
+     */
+    @Test public void outputsEarly() throws Exception {
+        int[] data = new int[20000 * 3];
+        for (int i = 0; i < 20000; i++) {
+            data[3 * i] = i / 2;
+            data[3 * i + 2] = i;
+        }
+        OpIterator child = TestUtil.createTupleList(3, data);
+        StreamAggregate stream = new StreamAggregate(child, 2, 0, Aggregator.Op.SUM);
+        stream.open();
+        assertTrue(stream.hasNext());
+        stream.next();
+        assertTrue(child.hasNext());
+        stream.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void orderedFieldNotGrouped() {
+        new StreamAggregate(TestUtil.createTupleList(2, new int[]{1, 2}), new int[]{1}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.SUM}, 1);
+    }
+
+    /**
+     * The planner streams when a group field is the key of a B+ tree table,
+     * and hashes otherwise
+     */
+    @Test public void planner() throws Exception {
+        BTreeFile unnamed = BTreeUtility.createRandomBTreeFile(2, 3000, 100, null, null, 0);
+        BTreeFile table = new BTreeFile(unnamed.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "stream_bt");
+        TransactionId tid = new TransactionId();
+        assertTrue(StreamAggregate.isGroupedOn(new SeqScan(tid, table.getId(), "stream_bt"), 0));
+        assertFalse(StreamAggregate.isGroupedOn(new SeqScan(tid, table.getId(), "stream_bt"), 1));
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT stream_bt.c0, MAX(stream_bt.c1) FROM stream_bt GROUP BY stream_bt.c0;");
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        OpIterator agg = ((Operator) plan).getChildren()[0];
+        assertTrue(agg instanceof StreamAggregate);
+        assertEquals(SystemTestUtil.sortedRows(new Aggregate(new SeqScan(tid, table.getId(), "stream_bt"), 1, 0,
+                Aggregator.Op.MAX)), SystemTestUtil.sortedRows(agg));
+
+        lp = new Parser().generateLogicalPlan(tid,
+                "SELECT stream_bt.c1, COUNT(stream_bt.c0) FROM stream_bt GROUP BY stream_bt.c1;");
+        plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof StreamAggregate);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StreamAggregateTest.class);
+    }
+}
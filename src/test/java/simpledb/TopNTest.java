@@ -0,0 +1,126 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.StringField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /**
+     * Random tuples (key, position) with many duplicate keys
+     */
+    private static int[] randomTuples(int n, long seed) {
+        Random random = new Random(seed);
+        int[] data = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = random.nextInt(n / 10) - n / 20;
+            data[2 * i + 1] = i;
+        }
+        return data;
+    }
+
+    private static List<List<Integer>> rows(OpIterator it, int max) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        while (rows.size() < max && it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return rows;
+    }
+
+    /**
+     * TopN returns the first n tuples of OrderBy, ties included in the same
+     * order, for both directions and for limits around the input size
+     */
+    @Test public void matchesOrderBy() throws Exception {
+        int n = 5000;
+        int[] data = randomTuples(n, 7);
+        for (boolean asc : new boolean[]{true, false}) {
+            for (int limit : new int[]{0, 1, 10, 1500, n, n + 10}) {
+                OrderBy orderBy = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+                TopN topN = new TopN(0, asc, limit, TestUtil.createTupleList(2, data));
+                orderBy.open();
+                topN.open();
+                List<List<Integer>> expected = rows(orderBy, limit);
+                assertEquals(Math.min(limit, n), expected.size());
+                assertEquals(asc + " " + limit, expected, rows(topN, Integer.MAX_VALUE));
+                topN.rewind();
+                assertEquals(expected, rows(topN, Integer.MAX_VALUE));
+                orderBy.close();
+                topN.close();
+            }
+        }
+    }
+
+    @Test public void stringKeys() throws Exception {
+        Object[] data = new Object[]{"d", "b", "e", "a", "c"};
+        TopN topN = new TopN(0, false, 2, TestUtil.createTupleList(1, data));
+        topN.open();
+        assertEquals("e", ((StringField) topN.next().getField(0)).getValue());
+        assertEquals("d", ((StringField) topN.next().getField(0)).getValue());
+        assertFalse(topN.hasNext());
+        topN.close();
+    }
+
+    /**
+     * The parser strips a trailing LIMIT clause and the plan uses TopN
+     */
+    @Test public void limitClause() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null, "c");
+        Database.getCatalog().addTable(table, "topn_t");
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM topn_t ORDER BY topn_t.c1 DESC limit 7;");
+        assertEquals(7, lp.getLimit());
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+
+        plan.open();
+        List<List<Integer>> rows = rows(plan, Integer.MAX_VALUE);
+        plan.close();
+        assertEquals(7, rows.size());
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue(rows.get(i - 1).get(1) >= rows.get(i).get(1));
+        }
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM topn_t ORDER BY topn_t.c1;");
+        assertEquals(LogicalPlan.NO_LIMIT, lp.getLimit());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * LIMIT without ORDER BY is rejected
+     */
+    @Test(expected = ParsingException.class) public void limitNeedsOrderBy() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        Database.getCatalog().addTable(table, "topn_u");
+        new Parser().generateLogicalPlan(new TransactionId(), "SELECT * FROM topn_u LIMIT 3;");
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
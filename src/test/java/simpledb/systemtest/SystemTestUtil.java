@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -151,6 +152,49 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Random int tuples, flattened for TestUtil.createTupleList: each row has
+     * one column per key, drawn from [0, keys[j]), followed by a value drawn
+     * from [-valueBound, valueBound).
+     */
+    public static int[] randomTuples(Random random, int rows, int valueBound, int... keys) {
+        int columns = keys.length + 1;
+        int[] data = new int[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < keys.length; j++) {
+                data[i * columns + j] = random.nextInt(keys[j]);
+            }
+            data[i * columns + keys.length] = random.nextInt(2 * valueBound) - valueBound;
+        }
+        return data;
+    }
+
+    /**
+     * @return the rows of the iterator as strings, sorted, so two results
+     * can be compared regardless of their order. Opens and closes it.
+     */
+    public static List<String> sortedRows(OpIterator iterator)
+            throws DbException, TransactionAbortedException {
+        iterator.open();
+        List<String> rows = remainingSortedRows(iterator);
+        iterator.close();
+        return rows;
+    }
+
+    /**
+     * Like {@link #sortedRows(OpIterator)}, but reads the rest of an iterator
+     * that is already open and leaves it open.
+     */
+    public static List<String> remainingSortedRows(OpIterator iterator)
+            throws DbException, TransactionAbortedException {
+        List<String> rows = new ArrayList<>();
+        while (iterator.hasNext()) {
+            rows.add(iterator.next().toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM